@@ -0,0 +1,86 @@
+package guru.sfg.beer.order.service.config;
+
+import org.apache.activemq.artemis.jms.client.ActiveMQConnectionFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.core.Ordered;
+import org.springframework.jms.connection.CachingConnectionFactory;
+import org.springframework.jms.connection.SingleConnectionFactory;
+import org.springframework.stereotype.Component;
+
+import javax.jms.ConnectionFactory;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Artemis sets prefetch (the consumer window) per connection factory, so a listener with its own prefetch needs its
+ * own copy of the Artemis factory. The factory is picked up here before tracing wraps the connection factory bean.
+ * <p>
+ * Each copy is shared by the listeners with the same prefetch, cached the way Boot caches the main factory, and
+ * closed with this bean.
+ */
+@Component
+public class ArtemisPrefetch implements BeanPostProcessor, Ordered, DisposableBean {
+
+    private final Map<Integer, CachingConnectionFactory> copies = new ConcurrentHashMap<>();
+
+    private volatile ActiveMQConnectionFactory artemisConnectionFactory;
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) {
+        Object target = bean instanceof SingleConnectionFactory
+                        ? ((SingleConnectionFactory) bean).getTargetConnectionFactory()
+                        : bean;
+        if (target instanceof ActiveMQConnectionFactory) {
+            artemisConnectionFactory = (ActiveMQConnectionFactory) target;
+        }
+        return bean;
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE;
+    }
+
+    /**
+     * @return the given factory when no prefetch is set, otherwise a copy of the Artemis factory with that window.
+     */
+    public ConnectionFactory withPrefetch(ConnectionFactory connectionFactory, Integer prefetch) {
+        if (prefetch == null) {
+            return connectionFactory;
+        }
+        ActiveMQConnectionFactory artemis = artemisConnectionFactory;
+        if (artemis == null) {
+            throw new IllegalStateException("Prefetch can only be set with an Artemis connection factory");
+        }
+        return copies.computeIfAbsent(prefetch, window -> copy(artemis, window));
+    }
+
+    @Override
+    public void destroy() {
+        copies.values().forEach(cached -> {
+            cached.destroy();
+            ((ActiveMQConnectionFactory) cached.getTargetConnectionFactory()).close();
+        });
+        copies.clear();
+    }
+
+    private static CachingConnectionFactory copy(ActiveMQConnectionFactory artemis, int prefetch) {
+        ActiveMQConnectionFactory copy;
+        try {
+            copy = new ActiveMQConnectionFactory(artemis.toURI().toString(), artemis.getUser(), artemis.getPassword());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        copy.setConsumerWindowSize(prefetch);
+
+        // Boot's defaults for the main factory: sessions and producers cached, consumers not.
+        CachingConnectionFactory cached = new CachingConnectionFactory(copy);
+        cached.setCacheConsumers(false);
+        cached.setCacheProducers(true);
+        cached.setSessionCacheSize(1);
+        return cached;
+    }
+}
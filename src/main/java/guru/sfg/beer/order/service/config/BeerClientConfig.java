@@ -0,0 +1,186 @@
+package guru.sfg.beer.order.service.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.Setter;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * A pool of its own for beer service calls, so a slow beer service can't starve the shared task executor and fanned
+ * out lookups don't queue behind unrelated work. When the pool is saturated the caller makes the call itself.
+ * <p>
+ * The calls themselves go over a pool of kept-alive connections with connect, read and pool wait timeouts, so a slow
+ * beer service fails requests after a bounded wait instead of tying up threads indefinitely. Pool usage is published
+ * as {@code sfg.brewery.beer.client.connections} tagged by state, and each call is timed in
+ * {@code sfg.brewery.beer.client.requests}.
+ */
+@ConfigurationProperties(prefix = "sfg.brewery.beer-client")
+@Configuration
+public class BeerClientConfig {
+
+    public static final String BEER_CLIENT_EXECUTOR        = "beerClientExecutor";
+    public static final String BEER_CLIENT_REQUEST_FACTORY = "beerClientRequestFactory";
+    public static final String BEER_REQUEST_EXECUTOR       = "beerRequestExecutor";
+
+    @Setter
+    private int poolSize = 16;
+
+    @Setter
+    private int queueCapacity = 200;
+
+    @Setter
+    private boolean virtualThreads = false;
+
+    @Setter
+    private int maxConnections = 100;
+
+    @Setter
+    private int maxConnectionsPerRoute = 20;
+
+    @Setter
+    private Duration connectTimeout = Duration.ofSeconds(1);
+
+    @Setter
+    private Duration readTimeout = Duration.ofSeconds(3);
+
+    /**
+     * How long a call waits for a free connection when all of them are in use.
+     */
+    @Setter
+    private Duration connectionRequestTimeout = Duration.ofSeconds(1);
+
+    /**
+     * How long an idle connection is kept when the beer service doesn't say.
+     */
+    @Setter
+    private Duration keepAlive = Duration.ofSeconds(30);
+
+    @Setter
+    private Duration maxIdleTime = Duration.ofSeconds(30);
+
+    @Bean(BEER_CLIENT_EXECUTOR)
+    TaskExecutor beerClientExecutor(MeterRegistry meterRegistry) {
+        if (virtualThreads) {
+            Optional<ThreadFactory> threadFactory = VirtualThreads.factory("beer-client-");
+            if (threadFactory.isPresent()) {
+                return new SimpleAsyncTaskExecutor(threadFactory.get());
+            }
+        }
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("beer-client-");
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+
+        meterRegistry.gauge("sfg.brewery.beer.client.queue.depth", Collections.emptyList(), executor,
+                            e -> e.getThreadPoolExecutor().getQueue().size());
+        meterRegistry.gauge("sfg.brewery.beer.client.active", Collections.emptyList(), executor,
+                            ThreadPoolTaskExecutor::getActiveCount);
+        return executor;
+    }
+
+    /**
+     * Runs individual requests for {@link guru.sfg.beer.order.service.services.beer.HedgedRequests}, apart from the
+     * client pool whose threads wait on them. Sized to the connection pool, since each request holds a connection.
+     */
+    @Bean(BEER_REQUEST_EXECUTOR)
+    TaskExecutor beerRequestExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("beer-request-");
+        executor.setCorePoolSize(Math.min(poolSize, maxConnections));
+        executor.setMaxPoolSize(maxConnections);
+        executor.setQueueCapacity(0);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    @Bean(BEER_CLIENT_REQUEST_FACTORY)
+    HttpComponentsClientHttpRequestFactory beerClientRequestFactory(MeterRegistry meterRegistry) {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+        bindPoolStats(meterRegistry, connectionManager, "leased", PoolStats::getLeased);
+        bindPoolStats(meterRegistry, connectionManager, "available", PoolStats::getAvailable);
+        bindPoolStats(meterRegistry, connectionManager, "pending", PoolStats::getPending);
+        bindPoolStats(meterRegistry, connectionManager, "max", PoolStats::getMax);
+
+        long keepAliveMillis = keepAlive.toMillis();
+        return new HttpComponentsClientHttpRequestFactory(
+                HttpClients.custom()
+                        .setConnectionManager(connectionManager)
+                        .setDefaultRequestConfig(RequestConfig.custom()
+                                                         .setConnectTimeout((int) connectTimeout.toMillis())
+                                                         .setSocketTimeout((int) readTimeout.toMillis())
+                                                         .setConnectionRequestTimeout(
+                                                                 (int) connectionRequestTimeout.toMillis())
+                                                         .build())
+                        .setKeepAliveStrategy((response, context) -> {
+                            long advertised = DefaultConnectionKeepAliveStrategy.INSTANCE
+                                    .getKeepAliveDuration(response, context);
+                            return advertised > 0 ? advertised : keepAliveMillis;
+                        })
+                        .evictExpiredConnections()
+                        .evictIdleConnections(maxIdleTime.toMillis(), TimeUnit.MILLISECONDS)
+                        .build());
+    }
+
+    /**
+     * Times each beer service call, tagged with the method and the status code, or the class of the exception if
+     * there was no response.
+     */
+    public static ClientHttpRequestInterceptor requestTimer(MeterRegistry meterRegistry) {
+        return (request, body, execution) -> {
+            long start = System.nanoTime();
+            String outcome = "UNKNOWN";
+            try {
+                ClientHttpResponse response = execution.execute(request, body);
+                outcome = String.valueOf(response.getRawStatusCode());
+                return response;
+            } catch (IOException | RuntimeException e) {
+                outcome = e.getClass().getSimpleName();
+                throw e;
+            } finally {
+                Timer.builder("sfg.brewery.beer.client.requests")
+                        .tags(Tags.of("method", request.getMethodValue(), "outcome", outcome))
+                        .register(meterRegistry)
+                        .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        };
+    }
+
+    private static void bindPoolStats(MeterRegistry meterRegistry,
+                                      PoolingHttpClientConnectionManager connectionManager,
+                                      String state,
+                                      ToDoubleFunction<PoolStats> stat) {
+        meterRegistry.gauge("sfg.brewery.beer.client.connections", Tags.of("state", state), connectionManager,
+                            manager -> stat.applyAsDouble(manager.getTotalStats()));
+    }
+}
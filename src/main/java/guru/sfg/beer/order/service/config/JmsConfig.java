@@ -1,12 +1,23 @@
 package guru.sfg.beer.order.service.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import guru.sfg.beer.order.service.services.codec.NegotiatingMessageConverter;
+import lombok.Setter;
+import org.springframework.boot.autoconfigure.jms.DefaultJmsListenerContainerFactoryConfigurer;
+import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.jms.config.DefaultJmsListenerContainerFactory;
 import org.springframework.jms.support.converter.MappingJackson2MessageConverter;
 import org.springframework.jms.support.converter.MessageConverter;
 import org.springframework.jms.support.converter.MessageType;
 
+import javax.jms.ConnectionFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+@ConfigurationProperties(prefix = "sfg.brewery.jms")
 @Configuration
 public class JmsConfig {
 
@@ -18,13 +29,99 @@ public class JmsConfig {
     public static final String DEALLOCATE_ORDER_QUEUE          = "deallocate-order";
     public static final String DEALLOCATE_ORDER_RESPONSE_QUEUE = "deallocate-order-response";
 
+    public static final String VALIDATE_ORDER_BATCH_QUEUE            = "validate-order-batch";
+    public static final String VALIDATE_ORDER_RESPONSE_BATCH_QUEUE   = "validate-order-result-batch";
+    public static final String ALLOCATE_ORDER_BATCH_QUEUE            = "allocate-order-batch";
+    public static final String ALLOCATE_ORDER_RESPONSE_BATCH_QUEUE   = "allocate-order-response-batch";
+    public static final String DEALLOCATE_ORDER_BATCH_QUEUE          = "deallocate-order-batch";
+    public static final String DEALLOCATE_ORDER_RESPONSE_BATCH_QUEUE = "deallocate-order-response-batch";
+
+    public static final String DEAD_LETTER_SUFFIX = ".dlq";
+
+    public static final String TYPE_ID_PROPERTY      = "_type";
+    public static final String CONTENT_TYPE_PROPERTY = "contentType";
+
+    public static final String VALIDATE_RESPONSE_CONTAINER_FACTORY   = "validateResponseContainerFactory";
+    public static final String ALLOCATE_RESPONSE_CONTAINER_FACTORY   = "allocateResponseContainerFactory";
+    public static final String DEALLOCATE_RESPONSE_CONTAINER_FACTORY = "deallocateResponseContainerFactory";
+
+    public enum Codec {
+        JSON,
+        /**
+         * Compact binary for the saga events, JSON for anything else. JSON is still accepted on receive.
+         */
+        BINARY
+    }
+
+    @Setter
+    private Codec codec = Codec.JSON;
+
+    /**
+     * Codec per destination, for peers that differ from the default, e.g.
+     * {@code sfg.brewery.jms.destination-codecs.validate-order=binary}. A request queue's codec also covers the
+     * {@code -batch} queue its requests are combined onto.
+     */
+    @Setter
+    private Map<String, Codec> destinationCodecs = new HashMap<>();
 
     @Bean
-    public MessageConverter messageConverter(ObjectMapper objectMapper) {
+    public NegotiatingMessageConverter messageConverter(ObjectMapper objectMapper) {
         MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter();
         converter.setTargetType(MessageType.TEXT);
-        converter.setTypeIdPropertyName("_type");
+        converter.setTypeIdPropertyName(TYPE_ID_PROPERTY);
         converter.setObjectMapper(objectMapper);
-        return converter;
+        return new NegotiatingMessageConverter(converter, codec, destinationCodecs);
+    }
+
+    @Bean(VALIDATE_RESPONSE_CONTAINER_FACTORY)
+    public DefaultJmsListenerContainerFactory validateResponseContainerFactory(
+            DefaultJmsListenerContainerFactoryConfigurer configurer,
+            ConnectionFactory connectionFactory,
+            ArtemisPrefetch artemisPrefetch,
+            JmsListenerProperties properties) {
+        return containerFactory(configurer, artemisPrefetch, connectionFactory, properties.getValidate(),
+                                properties.isVirtualThreads(), "validate");
+    }
+
+    @Bean(ALLOCATE_RESPONSE_CONTAINER_FACTORY)
+    public DefaultJmsListenerContainerFactory allocateResponseContainerFactory(
+            DefaultJmsListenerContainerFactoryConfigurer configurer,
+            ConnectionFactory connectionFactory,
+            ArtemisPrefetch artemisPrefetch,
+            JmsListenerProperties properties) {
+        return containerFactory(configurer, artemisPrefetch, connectionFactory, properties.getAllocate(),
+                                properties.isVirtualThreads(), "allocate");
+    }
+
+    @Bean(DEALLOCATE_RESPONSE_CONTAINER_FACTORY)
+    public DefaultJmsListenerContainerFactory deallocateResponseContainerFactory(
+            DefaultJmsListenerContainerFactoryConfigurer configurer,
+            ConnectionFactory connectionFactory,
+            ArtemisPrefetch artemisPrefetch,
+            JmsListenerProperties properties) {
+        return containerFactory(configurer, artemisPrefetch, connectionFactory, properties.getDeallocate(),
+                                properties.isVirtualThreads(), "deallocate");
+    }
+
+    /**
+     * Boot's listener defaults (message converter, session mode) plus the queue's own consumer settings.
+     */
+    private static DefaultJmsListenerContainerFactory containerFactory(
+            DefaultJmsListenerContainerFactoryConfigurer configurer,
+            ArtemisPrefetch artemisPrefetch,
+            ConnectionFactory connectionFactory,
+            JmsListenerProperties.Queue queue,
+            boolean virtualThreads,
+            String name) {
+        DefaultJmsListenerContainerFactory factory = new DefaultJmsListenerContainerFactory();
+        configurer.configure(factory, artemisPrefetch.withPrefetch(connectionFactory, queue.getPrefetch()));
+        factory.setConcurrency(queue.getMinConsumers() + "-" + Math.max(queue.getMinConsumers(),
+                                                                        queue.getMaxConsumers()));
+        factory.setReceiveTimeout(queue.getReceiveTimeout().toMillis());
+        if (virtualThreads) {
+            VirtualThreads.factory(name + "-listener-")
+                    .ifPresent(threadFactory -> factory.setTaskExecutor(new SimpleAsyncTaskExecutor(threadFactory)));
+        }
+        return factory;
     }
 }
@@ -0,0 +1,42 @@
+package guru.sfg.beer.order.service.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Consumer settings for each response queue's listener container, e.g.
+ * {@code sfg.brewery.jms.listener.allocate.max-consumers=8}.
+ */
+@Getter
+@ConfigurationProperties(prefix = "sfg.brewery.jms.listener")
+@Component
+public class JmsListenerProperties {
+
+    private final Queue validate   = new Queue();
+    private final Queue allocate   = new Queue();
+    private final Queue deallocate = new Queue();
+
+    /**
+     * Run consumers on virtual threads, where the JDK has them.
+     */
+    @Setter
+    private boolean virtualThreads = false;
+
+    @Getter
+    @Setter
+    public static class Queue {
+        private int minConsumers = 1;
+        private int maxConsumers = 1;
+
+        /**
+         * Artemis consumer window size in bytes; the connection factory's default when not set.
+         */
+        private Integer prefetch;
+
+        private Duration receiveTimeout = Duration.ofSeconds(1);
+    }
+}
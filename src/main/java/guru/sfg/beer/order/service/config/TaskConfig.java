@@ -1,19 +1,121 @@
 package guru.sfg.beer.order.service.config;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskDecorator;
 import org.springframework.core.task.TaskExecutor;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Task Configuration - enable async tasks
+ * Task Configuration - enable async tasks on a bounded pool, or on a virtual thread per task when
+ * {@code sfg.brewery.task-executor.virtual-threads} is set and the JDK has them.
  */
 @EnableAsync
+@ConfigurationProperties(prefix = "sfg.brewery.task-executor")
 @Configuration
 public class TaskConfig {
+
+    public enum RejectionPolicy {
+        /**
+         * Run the task on the submitting thread, slowing the producer down.
+         */
+        CALLER_RUNS,
+        /**
+         * Throw {@link java.util.concurrent.RejectedExecutionException}.
+         */
+        ABORT
+    }
+
+    @Setter
+    private int corePoolSize = 8;
+
+    @Setter
+    private int maxPoolSize = 32;
+
+    @Setter
+    private int queueCapacity = 500;
+
+    @Setter
+    private RejectionPolicy rejectionPolicy = RejectionPolicy.CALLER_RUNS;
+
+    @Setter
+    private boolean virtualThreads = false;
+
+    @Primary
     @Bean
-    TaskExecutor taskExecutor() {
-        return new SimpleAsyncTaskExecutor();
+    TaskExecutor taskExecutor(MeterRegistry meterRegistry) {
+        TaskDecorator instrumentation = instrumentation(meterRegistry);
+
+        if (virtualThreads) {
+            Optional<ThreadFactory> threadFactory = VirtualThreads.factory("task-");
+            if (threadFactory.isPresent()) {
+                SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threadFactory.get());
+                executor.setTaskDecorator(instrumentation);
+                return executor;
+            }
+        }
+
+        Counter rejected = meterRegistry.counter("sfg.brewery.task.rejected");
+        RejectedExecutionHandler policy = rejectionPolicy == RejectionPolicy.ABORT
+                                          ? new ThreadPoolExecutor.AbortPolicy()
+                                          : new ThreadPoolExecutor.CallerRunsPolicy();
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("task-");
+        executor.setCorePoolSize(corePoolSize);
+        executor.setMaxPoolSize(Math.max(corePoolSize, maxPoolSize));
+        executor.setQueueCapacity(queueCapacity);
+        executor.setTaskDecorator(instrumentation);
+        executor.setRejectedExecutionHandler((task, pool) -> {
+            rejected.increment();
+            policy.rejectedExecution(task, pool);
+        });
+        executor.initialize();
+
+        meterRegistry.gauge("sfg.brewery.task.queue.depth", Collections.emptyList(), executor,
+                            e -> e.getThreadPoolExecutor().getQueue().size());
+        meterRegistry.gauge("sfg.brewery.task.pool.size", Collections.emptyList(), executor,
+                            ThreadPoolTaskExecutor::getPoolSize);
+        return executor;
+    }
+
+    /**
+     * Counts running tasks and times each one from submission, split into time spent queued and time spent running.
+     */
+    private static TaskDecorator instrumentation(MeterRegistry meterRegistry) {
+        AtomicInteger active = meterRegistry.gauge("sfg.brewery.task.active", new AtomicInteger());
+        Timer queued = meterRegistry.timer("sfg.brewery.task.queued");
+        Timer execution = meterRegistry.timer("sfg.brewery.task.execution");
+
+        return task -> {
+            long submitted = System.nanoTime();
+            return () -> {
+                long started = System.nanoTime();
+                queued.record(started - submitted, TimeUnit.NANOSECONDS);
+                active.incrementAndGet();
+                try {
+                    task.run();
+                } finally {
+                    active.decrementAndGet();
+                    execution.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                }
+            };
+        };
     }
 }
@@ -0,0 +1,33 @@
+package guru.sfg.beer.order.service.config;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Optional;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual thread support, looked up reflectively so the service still builds and runs on Java 11. On a JDK without
+ * virtual threads (before 21) callers get an empty result and should fall back to platform threads.
+ */
+@Slf4j
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * A factory for virtual threads named {@code prefix0}, {@code prefix1}, ...
+     */
+    public static Optional<ThreadFactory> factory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return Optional.of((ThreadFactory) builderType.getMethod("factory").invoke(builder));
+        } catch (ReflectiveOperationException e) {
+            log.warn("Virtual threads are not available on Java " + Runtime.version().feature()
+                     + ", using platform threads for " + prefix);
+            return Optional.empty();
+        }
+    }
+}
@@ -25,8 +25,10 @@ import org.hibernate.annotations.FetchMode;
 
 import javax.persistence.CascadeType;
 import javax.persistence.Entity;
+import javax.persistence.Index;
 import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
+import javax.persistence.Table;
 import java.sql.Timestamp;
 import java.util.Set;
 import java.util.UUID;
@@ -37,6 +39,7 @@ import java.util.UUID;
 @Getter
 @Setter
 @Entity
+@Table(indexes = @Index(name = "ix_beer_order_customer_created", columnList = "customer_id, createdDate, id"))
 @NoArgsConstructor
 public class BeerOrder extends BaseEntity {
 
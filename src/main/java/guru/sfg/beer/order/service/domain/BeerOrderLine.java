@@ -23,6 +23,7 @@ import lombok.Setter;
 
 import javax.persistence.Entity;
 import javax.persistence.ManyToOne;
+import java.math.BigDecimal;
 import java.sql.Timestamp;
 import java.util.UUID;
 
@@ -37,12 +38,15 @@ public class BeerOrderLine extends BaseEntity {
 
     @Builder
     public BeerOrderLine(UUID id, Long version, Timestamp createdDate, Timestamp lastModifiedDate,
-                         BeerOrder beerOrder, UUID beerId, String upc, Integer orderQuantity,
-                         Integer quantityAllocated) {
+                         BeerOrder beerOrder, UUID beerId, String upc, String beerName, String beerStyle,
+                         BigDecimal beerPrice, Integer orderQuantity, Integer quantityAllocated) {
         super(id, version, createdDate, lastModifiedDate);
         this.beerOrder = beerOrder;
         this.beerId = beerId;
         this.upc = upc;
+        this.beerName = beerName;
+        this.beerStyle = beerStyle;
+        this.beerPrice = beerPrice;
         this.orderQuantity = orderQuantity;
         this.quantityAllocated = quantityAllocated;
     }
@@ -52,6 +56,15 @@ public class BeerOrderLine extends BaseEntity {
 
     private UUID beerId;
     private String upc;
+
+    /**
+     * The beer as it was when the order was placed, so reads don't need the beer service and the order keeps its
+     * price. Null on orders placed before these were stored, or if the beer couldn't be resolved at the time.
+     */
+    private String beerName;
+    private String beerStyle;
+    private BigDecimal beerPrice;
+
     private Integer orderQuantity = 0;
     private Integer quantityAllocated = 0;
 }
@@ -24,7 +24,9 @@ import org.hibernate.annotations.Type;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.Index;
 import javax.persistence.OneToMany;
+import javax.persistence.Table;
 import java.sql.Timestamp;
 import java.util.Set;
 import java.util.UUID;
@@ -36,6 +38,7 @@ import java.util.UUID;
 @Setter
 @NoArgsConstructor
 @Entity
+@Table(indexes = @Index(name = "ix_customer_created", columnList = "createdDate, id"))
 public class Customer extends BaseEntity {
 
     @Builder
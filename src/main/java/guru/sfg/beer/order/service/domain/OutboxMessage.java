@@ -0,0 +1,64 @@
+package guru.sfg.beer.order.service.domain;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.CreationTimestamp;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import java.sql.Timestamp;
+
+/**
+ * A JMS message waiting to be relayed, written in the same transaction as the state change that produced it. Rows
+ * are only updated to claim them for sending, with a single conditional update, so unlike {@link BaseEntity} there is
+ * no version; the sequential id gives the send order.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@Entity
+public class OutboxMessage {
+
+    @Builder
+    public OutboxMessage(String destination, String payloadType, String payload, byte[] binaryPayload) {
+        this.destination = destination;
+        this.payloadType = payloadType;
+        this.payload = payload;
+        this.binaryPayload = binaryPayload;
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String destination;
+
+    @Column(nullable = false)
+    private String payloadType;
+
+    /**
+     * The message body: JSON, or for a destination that takes binary events the encoded event. Exactly one is set.
+     */
+    @Lob
+    private String payload;
+
+    @Lob
+    private byte[] binaryPayload;
+
+    @CreationTimestamp
+    @Column(updatable = false)
+    private Timestamp createdDate;
+
+    /**
+     * The relay pass that is sending this message, and until when; past that any relay may claim it again.
+     */
+    private String    claimedBy;
+    private Timestamp claimedUntil;
+}
@@ -0,0 +1,135 @@
+package guru.sfg.beer.order.service.repositories;
+
+import guru.sfg.beer.order.service.domain.BeerOrder;
+import guru.sfg.beer.order.service.domain.BeerOrderLine;
+import guru.sfg.beer.order.service.domain.BeerOrderStatusEnum;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Collects the status and allocated quantity writes made while {@link #run(Runnable)} is active on this thread, and
+ * sends them as two JDBC batches at the end instead of one statement each. Must be called inside a transaction;
+ * the writes are checked when the batch is flushed and any lost compare-and-set fails the whole batch.
+ * <p>
+ * The orders are locked and their status and version checked before the status batch is sent, rather than relying
+ * on its update counts: with {@code rewriteBatchedStatements} the MySQL driver may report
+ * {@link Statement#SUCCESS_NO_INFO} for every statement, and a miss would go unnoticed.
+ */
+@Component
+@RequiredArgsConstructor
+public class BeerOrderBatchWriter {
+
+    private static final String UPDATE_STATUS =
+            "update beer_order set order_status = ?, version = version + 1, last_modified_date = ? "
+            + "where id = ? and order_status = ? and version = ?";
+
+    private static final String LOCK_STATUSES =
+            "select id, order_status, version from beer_order where id in (%s) for update";
+
+    private static final String UPDATE_QUANTITY_ALLOCATED =
+            "update beer_order_line set quantity_allocated = ?, version = version + 1, last_modified_date = ? "
+            + "where id = ? and beer_order_id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public void run(Runnable work) {
+        Pending pending = new Pending();
+        TransactionSynchronizationManager.bindResource(this, pending);
+        try {
+            work.run();
+            flush(pending);
+        } finally {
+            TransactionSynchronizationManager.unbindResource(this);
+        }
+    }
+
+    public boolean isActive() {
+        return TransactionSynchronizationManager.hasResource(this);
+    }
+
+    /**
+     * Deferred equivalent of {@link BeerOrderRepository#compareAndSetStatus}.
+     */
+    public void compareAndSetStatus(UUID id, BeerOrderStatusEnum from, Long version, BeerOrderStatusEnum to) {
+        pending().statuses.add(new Object[]{to.ordinal(), null, id.toString(), from.ordinal(), version});
+    }
+
+    /**
+     * Deferred equivalent of {@link BeerOrderLineRepository#updateQuantityAllocated}.
+     */
+    public void updateQuantityAllocated(UUID id, UUID beerOrderId, Integer quantityAllocated) {
+        pending().quantities.add(new Object[]{quantityAllocated, null, id.toString(), beerOrderId.toString()});
+    }
+
+    private Pending pending() {
+        return (Pending) TransactionSynchronizationManager.getResource(this);
+    }
+
+    private void flush(Pending pending) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        pending.statuses.forEach(args -> args[1] = now);
+        pending.quantities.forEach(args -> args[1] = now);
+
+        checkStatuses(pending.statuses);
+        execute(UPDATE_STATUS, pending.statuses, BeerOrder.class);
+        execute(UPDATE_QUANTITY_ALLOCATED, pending.quantities, BeerOrderLine.class);
+    }
+
+    /**
+     * Lock each order and check it is still in the status and version its first pending update expects; any later
+     * updates to the same order follow on from that one within this transaction.
+     */
+    private void checkStatuses(List<Object[]> statuses) {
+        if (statuses.isEmpty()) {
+            return;
+        }
+        Map<Object, Object[]> expected = new LinkedHashMap<>();
+        statuses.forEach(args -> expected.putIfAbsent(args[2], args));
+
+        Map<String, Object[]> locked = new HashMap<>();
+        jdbcTemplate.query(String.format(LOCK_STATUSES, String.join(",", Collections.nCopies(expected.size(), "?"))),
+                           rs -> {
+                               locked.put(rs.getString("id"),
+                                          new Object[]{rs.getInt("order_status"), rs.getLong("version")});
+                           },
+                           expected.keySet().toArray());
+
+        expected.forEach((id, args) -> {
+            Object[] row = locked.get(id);
+            if (row == null || !row[0].equals(args[3]) || !row[1].equals(args[4])) {
+                throw new ObjectOptimisticLockingFailureException(BeerOrder.class, id);
+            }
+        });
+    }
+
+    private void execute(String sql, List<Object[]> args, Class<?> entityClass) {
+        if (args.isEmpty()) {
+            return;
+        }
+        int[] counts = jdbcTemplate.batchUpdate(sql, args);
+        for (int i = 0; i < counts.length; i++) {
+            // Drivers may report SUCCESS_NO_INFO for batched statements; the status updates are checked up front.
+            if (counts[i] == 0) {
+                throw new ObjectOptimisticLockingFailureException(entityClass, args.get(i)[2]);
+            }
+        }
+    }
+
+    private static class Pending {
+        final List<Object[]> statuses   = new ArrayList<>();
+        final List<Object[]> quantities = new ArrayList<>();
+    }
+}
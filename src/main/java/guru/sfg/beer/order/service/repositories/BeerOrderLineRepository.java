@@ -18,9 +18,24 @@
 package guru.sfg.beer.order.service.repositories;
 
 import guru.sfg.beer.order.service.domain.BeerOrderLine;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.UUID;
 
 public interface BeerOrderLineRepository extends PagingAndSortingRepository<BeerOrderLine, UUID> {
+
+    /**
+     * @return 0 if the line does not exist or belongs to another order.
+     */
+    @Transactional
+    @Modifying
+    @Query("update BeerOrderLine l set l.quantityAllocated = :quantityAllocated, l.version = l.version + 1, "
+           + "l.lastModifiedDate = current_timestamp where l.id = :id and l.beerOrder.id = :beerOrderId")
+    int updateQuantityAllocated(@Param("id") UUID id,
+                                @Param("beerOrderId") UUID beerOrderId,
+                                @Param("quantityAllocated") Integer quantityAllocated);
 }
@@ -23,9 +23,20 @@ import guru.sfg.beer.order.service.domain.Customer;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.QueryHint;
+
+import java.sql.Timestamp;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 
 /**
@@ -33,7 +44,82 @@ import java.util.UUID;
  */
 public interface BeerOrderRepository  extends JpaRepository<BeerOrder, UUID> {
 
-    Page<BeerOrder> findAllByCustomer(Customer customer, Pageable pageable);
+    int STREAM_FETCH_SIZE = 500;
+
+    /**
+     * One page of a customer's order ids, for listing orders in two steps: page over the orders alone, then load the
+     * page with {@link #findAggregatesByIdIn}. Paging over the orders with their lines fetched would either repeat
+     * each order once per line or make Hibernate page in memory.
+     */
+    @Query(value = "select o.id from BeerOrder o where o.customer = :customer",
+           countQuery = "select count(o) from BeerOrder o where o.customer = :customer")
+    Page<UUID> findIdsByCustomer(@Param("customer") Customer customer, Pageable pageable);
+
+    /**
+     * The first of a customer's order ids by {@code (createdDate, id)}, as many as {@code limit} asks for, without
+     * a count.
+     */
+    @Query("select o.id from BeerOrder o where o.customer = :customer order by o.createdDate, o.id")
+    List<UUID> findFirstIdsByCustomer(@Param("customer") Customer customer, Pageable limit);
+
+    /**
+     * The customer's order ids that follow {@code (createdDate, id)}, seeking on the customer and created date index.
+     */
+    @Query("select o.id from BeerOrder o where o.customer = :customer "
+           + "and (o.createdDate > :createdDate or (o.createdDate = :createdDate and o.id > :id)) "
+           + "order by o.createdDate, o.id")
+    List<UUID> findIdsByCustomerAfter(@Param("customer") Customer customer,
+                                      @Param("createdDate") Timestamp createdDate,
+                                      @Param("id") UUID id,
+                                      Pageable limit);
+
+    long countByCustomer(Customer customer);
+
+    /**
+     * All of a customer's orders with their lines, oldest first, read from the database {@link #STREAM_FETCH_SIZE}
+     * rows at a time. Must be consumed and closed within a transaction; callers should detach each order once done
+     * with it, or the persistence context grows with the history.
+     */
+    @QueryHints({
+            @QueryHint(name = org.hibernate.annotations.QueryHints.FETCH_SIZE, value = "" + STREAM_FETCH_SIZE),
+            @QueryHint(name = org.hibernate.annotations.QueryHints.READ_ONLY, value = "true")
+    })
+    @Query("select o from BeerOrder o left join fetch o.beerOrderLines where o.customer = :customer "
+           + "order by o.createdDate, o.id")
+    Stream<BeerOrder> streamAllByCustomer(@Param("customer") Customer customer);
 
     List<BeerOrder> findAllByOrderStatus(BeerOrderStatusEnum beerOrderStatusEnum);
+
+    /**
+     * Load the order with its customer and lines in one query. The entities are read-only: status changes go through
+     * {@link #compareAndSetStatus}, so the in-memory copy can be kept current without Hibernate flushing it.
+     */
+    @QueryHints(@QueryHint(name = org.hibernate.annotations.QueryHints.READ_ONLY, value = "true"))
+    @Query("select distinct o from BeerOrder o left join fetch o.customer left join fetch o.beerOrderLines "
+           + "where o.id = :id")
+    Optional<BeerOrder> findAggregateById(@Param("id") UUID id);
+
+    @QueryHints(@QueryHint(name = org.hibernate.annotations.QueryHints.READ_ONLY, value = "true"))
+    @Query("select distinct o from BeerOrder o left join fetch o.customer left join fetch o.beerOrderLines "
+           + "where o.id in :ids")
+    List<BeerOrder> findAggregatesByIdIn(@Param("ids") Collection<UUID> ids);
+
+    @Query("select o.orderStatus from BeerOrder o where o.id = :id")
+    Optional<BeerOrderStatusEnum> findOrderStatusById(@Param("id") UUID id);
+
+    /**
+     * Move the order from one status to another in a single statement, provided nobody else has changed it since
+     * {@code version} was read.
+     *
+     * @return 1 if the update won, 0 if the order is missing or was changed concurrently.
+     */
+    @Transactional
+    @Modifying
+    @Query("update BeerOrder o set o.orderStatus = :to, o.version = o.version + 1, "
+           + "o.lastModifiedDate = current_timestamp "
+           + "where o.id = :id and o.orderStatus = :from and o.version = :version")
+    int compareAndSetStatus(@Param("id") UUID id,
+                            @Param("from") BeerOrderStatusEnum from,
+                            @Param("version") Long version,
+                            @Param("to") BeerOrderStatusEnum to);
 }
@@ -20,7 +20,10 @@ import guru.sfg.beer.order.service.domain.Customer;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.sql.Timestamp;
 import java.util.List;
 import java.util.UUID;
 
@@ -31,4 +34,15 @@ public interface CustomerRepository extends JpaRepository<Customer, UUID> {
     List<Customer> findAllByCustomerNameLike(String customerName);
 
     Page<Customer> findAll(Pageable pageable);
+
+    @Query("select c from Customer c order by c.createdDate, c.id")
+    List<Customer> findFirst(Pageable limit);
+
+    /**
+     * Customers that follow {@code (createdDate, id)}; see {@link BeerOrderRepository#findIdsByCustomerAfter}.
+     */
+    @Query("select c from Customer c "
+           + "where c.createdDate > :createdDate or (c.createdDate = :createdDate and c.id > :id) "
+           + "order by c.createdDate, c.id")
+    List<Customer> findAfter(@Param("createdDate") Timestamp createdDate, @Param("id") UUID id, Pageable limit);
 }
@@ -0,0 +1,52 @@
+package guru.sfg.beer.order.service.repositories;
+
+import guru.sfg.beer.order.service.domain.OutboxMessage;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.List;
+
+public interface OutboxMessageRepository extends JpaRepository<OutboxMessage, Long> {
+
+    /**
+     * The oldest messages that no relay holds a current claim on.
+     */
+    @Query("select m from OutboxMessage m where m.claimedUntil is null or m.claimedUntil < :now order by m.id")
+    List<OutboxMessage> findClaimable(@Param("now") Timestamp now, Pageable pageable);
+
+    /**
+     * Claim those of the given messages that are still claimable. Each row is claimed by at most one relay, however
+     * many run this at once.
+     *
+     * @return the number of messages claimed.
+     */
+    @Transactional
+    @Modifying
+    @Query("update OutboxMessage m set m.claimedBy = :claim, m.claimedUntil = :until "
+           + "where m.id in :ids and (m.claimedUntil is null or m.claimedUntil < :now)")
+    int claim(@Param("ids") Collection<Long> ids,
+              @Param("claim") String claim,
+              @Param("now") Timestamp now,
+              @Param("until") Timestamp until);
+
+    List<OutboxMessage> findByClaimedByOrderByIdAsc(String claim);
+
+    /**
+     * Give up a claim, so the messages can be retried straight away rather than after the claim runs out.
+     */
+    @Transactional
+    @Modifying
+    @Query("update OutboxMessage m set m.claimedBy = null, m.claimedUntil = null where m.claimedBy = :claim")
+    int release(@Param("claim") String claim);
+
+    @Transactional
+    @Modifying
+    @Query("delete from OutboxMessage m where m.id in :ids")
+    int deleteByIdIn(@Param("ids") Collection<Long> ids);
+}
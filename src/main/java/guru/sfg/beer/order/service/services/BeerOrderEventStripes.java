@@ -0,0 +1,153 @@
+package guru.sfg.beer.order.service.services;
+
+import guru.sfg.beer.order.service.config.VirtualThreads;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Serializes the events of each beer order. An order is mapped to one of a fixed number of stripes by its id, and
+ * each stripe has a single thread, so events for the same order are applied one at a time and in arrival order while
+ * different orders proceed in parallel.
+ * <p>
+ * Callers such as the JMS listeners wait for their event's stripe, so however many consumers they have, no more
+ * orders than there are stripes are worked on at once. With {@code virtual-threads} each stripe runs on a virtual
+ * thread, which costs little enough that {@code stripes} can be raised to match the listeners' consumers.
+ */
+@Slf4j
+@ConfigurationProperties(prefix = "sfg.brewery.order-events")
+@Component
+public class BeerOrderEventStripes {
+
+    public static final String QUEUE_DEPTH_GAUGE = "sfg.brewery.order.events.queue.depth";
+
+    private static final String STRIPE_THREAD_PREFIX = "order-events-";
+
+    private static final ThreadLocal<ThreadPoolExecutor> CURRENT_STRIPE = new ThreadLocal<>();
+
+    private final MeterRegistry meterRegistry;
+
+    private ThreadPoolExecutor[] executors;
+
+    @Setter
+    private int stripes = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Run each stripe on a virtual thread, where the JDK has them.
+     */
+    @Setter
+    private boolean virtualThreads = false;
+
+    public BeerOrderEventStripes(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        ThreadFactory threadFactory = virtualThreads
+                                      ? VirtualThreads.factory(STRIPE_THREAD_PREFIX).orElse(Thread::new)
+                                      : Thread::new;
+        executors = new ThreadPoolExecutor[Math.max(1, stripes)];
+        for (int i = 0; i < executors.length; i++) {
+            executors[i] = newStripe(i, threadFactory);
+            meterRegistry.gauge(QUEUE_DEPTH_GAUGE, Tags.of("stripe", String.valueOf(i)), executors[i],
+                                e -> e.getQueue().size());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        for (ThreadPoolExecutor executor : executors) {
+            executor.shutdown();
+        }
+        for (ThreadPoolExecutor executor : executors) {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                log.warn("Order event stripe did not drain: " + executor.getQueue().size() + " events dropped");
+            }
+        }
+    }
+
+    /**
+     * Queue a task behind the order's earlier events without waiting for it. Nothing waits for the task, so if it
+     * fails {@code onFailure} is run in its place, on the same stripe.
+     */
+    public void execute(UUID beerOrderId, Runnable task, Consumer<RuntimeException> onFailure) {
+        stripeFor(beerOrderId).execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                log.error("Event for order " + beerOrderId + " failed", e);
+                try {
+                    onFailure.accept(e);
+                } catch (RuntimeException f) {
+                    log.error("Handling the failed event for order " + beerOrderId + " failed", f);
+                }
+            }
+        });
+    }
+
+    /**
+     * Run a task on the order's stripe and wait for its result. Runs inline when already on that stripe.
+     */
+    public <T> T call(UUID beerOrderId, Supplier<T> task) {
+        ThreadPoolExecutor executor = stripeFor(beerOrderId);
+        if (CURRENT_STRIPE.get() == executor) {
+            return task.get();
+        }
+
+        Future<T> future = executor.submit(task::get);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(false);
+            throw new IllegalStateException("Interrupted waiting for order " + beerOrderId, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public void run(UUID beerOrderId, Runnable task) {
+        call(beerOrderId, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    private ThreadPoolExecutor stripeFor(UUID beerOrderId) {
+        int h = beerOrderId.hashCode();
+        return executors[Math.floorMod(h ^ (h >>> 16), executors.length)];
+    }
+
+    private ThreadPoolExecutor newStripe(int index, ThreadFactory threadFactory) {
+        ThreadPoolExecutor[] self = new ThreadPoolExecutor[1];
+        self[0] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = threadFactory.newThread(() -> {
+                CURRENT_STRIPE.set(self[0]);
+                r.run();
+            });
+            thread.setName(STRIPE_THREAD_PREFIX + index);
+            thread.setDaemon(true);
+            return thread;
+        });
+        return self[0];
+    }
+}
@@ -2,7 +2,10 @@ package guru.sfg.beer.order.service.services;
 
 import guru.sfg.beer.order.service.domain.BeerOrder;
 import guru.sfg.brewery.model.BeerOrderDto;
+import guru.sfg.brewery.model.events.AllocateOrderResponse;
+import guru.sfg.brewery.model.events.ValidateOrderResponse;
 
+import java.util.List;
 import java.util.UUID;
 
 public interface BeerOrderManager {
@@ -15,6 +18,18 @@ public interface BeerOrderManager {
 
     void processDeallocateOrderResponse(BeerOrderDto beerOrderDto);
 
+    /*
+     * Batch variants: all responses are applied in one transaction or none are. They throw if any response can't be
+     * applied as it stands, e.g. its order is not in the expected status; the caller should then fall back to the
+     * single-response methods above.
+     */
+
+    void processValidationResults(List<ValidateOrderResponse> responses);
+
+    void processAllocateOrderResponses(List<AllocateOrderResponse> responses);
+
+    void processDeallocateOrderResponses(List<BeerOrderDto> beerOrderDtos);
+
     void pickupBeerOrder(UUID beerOrderId);
 
     void cancelBeerOrder(UUID beerOrderId);
@@ -3,43 +3,68 @@ package guru.sfg.beer.order.service.services;
 import guru.sfg.beer.order.service.domain.BeerOrder;
 import guru.sfg.beer.order.service.domain.BeerOrderEventEnum;
 import guru.sfg.beer.order.service.domain.BeerOrderStatusEnum;
+import guru.sfg.beer.order.service.repositories.BeerOrderBatchWriter;
+import guru.sfg.beer.order.service.repositories.BeerOrderLineRepository;
 import guru.sfg.beer.order.service.repositories.BeerOrderRepository;
-import guru.sfg.beer.order.service.sm.BeerOrderStateChangeInterceptor;
-import guru.sfg.beer.order.service.web.mappers.BeerOrderMapper;
+import guru.sfg.beer.order.service.sm.BeerOrderTransitionEngine;
 import guru.sfg.brewery.model.BeerOrderDto;
+import guru.sfg.brewery.model.events.AllocateOrderResponse;
+import guru.sfg.brewery.model.events.ValidateOrderResponse;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.support.MessageBuilder;
-import org.springframework.statemachine.StateMachine;
-import org.springframework.statemachine.config.StateMachineFactory;
-import org.springframework.statemachine.support.DefaultStateMachineContext;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import javax.transaction.Transactional;
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static guru.sfg.beer.order.service.domain.BeerOrderEventEnum.BEER_ORDER_PICKED_UP;
 import static guru.sfg.beer.order.service.domain.BeerOrderEventEnum.CANCEL_ORDER;
 import static guru.sfg.beer.order.service.domain.BeerOrderStatusEnum.ALLOCATED;
 
+/**
+ * Each inbound message is handled as one unit of work on the order's stripe: a single transaction that loads the
+ * order aggregate once and passes it, in {@link #ORDER_HEADER}, through every event it triggers.
+ * <p>
+ * A response is only applied to an order in the status that issued its request. Requests are relayed from the
+ * outbox after the status change that wrote them has committed, so a response finding any other status is a
+ * duplicate or a stale one, and is dropped, counted in {@value #DROPPED_EVENTS} by the status it expected and the
+ * one it found. A response that fails is thrown back to its listener, which has the broker redeliver it.
+ */
 @RequiredArgsConstructor
 @Service
 @Slf4j
 public class BeerOrderManagerImpl implements BeerOrderManager {
 
-    public static final String ORDER_ID_HEADER = "ORDER_ID_HEADER";
-
-    private final StateMachineFactory<BeerOrderStatusEnum, BeerOrderEventEnum> stateMachineFactory;
-    private final BeerOrderRepository                                          beerOrderRepository;
-    private final BeerOrderStateChangeInterceptor                              beerOrderStateChangeInterceptor;
-    private final BeerOrderMapper                                              beerOrderMapper;
-
+    public static final String ORDER_ID_HEADER      = "ORDER_ID_HEADER";
+    public static final String ORDER_VERSION_HEADER = "ORDER_VERSION_HEADER";
+    public static final String ORDER_HEADER         = "ORDER_HEADER";
+    public static final String DROPPED_EVENTS       = "sfg.brewery.order.events.dropped";
+
+    private final BeerOrderTransitionEngine beerOrderTransitionEngine;
+    private final BeerOrderRepository       beerOrderRepository;
+    private final BeerOrderLineRepository   beerOrderLineRepository;
+    private final BeerOrderBatchWriter      beerOrderBatchWriter;
+    private final BeerOrderEventStripes     beerOrderEventStripes;
+    private final TransactionTemplate       transactionTemplate;
+    private final MeterRegistry             meterRegistry;
+
+    /**
+     * Saves the order and queues validation on the order's stripe once the surrounding transaction (if any) commits.
+     * The returned order is still {@link BeerOrderStatusEnum#NEW}. If validation can't be requested the order moves
+     * to {@link BeerOrderStatusEnum#VALIDATION_EXCEPTION} instead of staying new.
+     */
     @Override
     public BeerOrder newBeerOrder(BeerOrder beerOrder) {
         beerOrder.setId(null);
@@ -48,68 +73,82 @@ public class BeerOrderManagerImpl implements BeerOrderManager {
         BeerOrder savedBeerOrder = beerOrderRepository.saveAndFlush(beerOrder);
         log.info("Beer order saved: " + savedBeerOrder.getId());
 
-        sendBeerOrderEvent(savedBeerOrder, BeerOrderEventEnum.VALIDATE_ORDER);
+        UUID beerOrderId = savedBeerOrder.getId();
+        afterCommit(() -> beerOrderEventStripes.execute(
+                beerOrderId,
+                () -> applyInTransaction(beerOrderId, BeerOrderStatusEnum.NEW,
+                                         order -> sendBeerOrderEvent(order, BeerOrderEventEnum.VALIDATE_ORDER)),
+                failure -> applyInTransaction(beerOrderId, BeerOrderStatusEnum.NEW,
+                                              order -> sendBeerOrderEvent(order, BeerOrderEventEnum.VALIDATION_FAILED))));
         return savedBeerOrder;
     }
 
     @Override
     public void processValidationResult(UUID beerOrderId, boolean isValid) {
-        if (!awaitForStatus(beerOrderId, BeerOrderStatusEnum.VALIDATION_PENDING)) {
-            log.error("RACE CONDITION HIT");
-        }
-
-        beerOrderRepository.findById(beerOrderId).ifPresentOrElse(
-                beerOrder -> {
-                    if (isValid) {
+        handle(beerOrderId, BeerOrderStatusEnum.VALIDATION_PENDING,
+               beerOrder -> applyValidationResult(beerOrder, isValid));
+    }
 
-                        sendBeerOrderEvent(beerOrder, BeerOrderEventEnum.VALIDATION_PASSED);
-                        beerOrderRepository.findById(beerOrderId).ifPresentOrElse(
-                                validatedOrder -> sendBeerOrderEvent(validatedOrder, BeerOrderEventEnum.ALLOCATE_ORDER),
-                                () -> {
-                                    throw new RuntimeException("Beer orders are disappearing from the repository.");
-                                });
-                    } else {
-                        sendBeerOrderEvent(beerOrder, BeerOrderEventEnum.VALIDATION_FAILED);
-                    }
-                },
-                () -> {
-                    log.error("Beer order not found: " + beerOrderId);
-                });
+    @Override
+    public void processValidationResults(List<ValidateOrderResponse> responses) {
+        applyBatch(responses, ValidateOrderResponse::getOrderId, BeerOrderStatusEnum.VALIDATION_PENDING,
+                   (beerOrder, response) -> applyValidationResult(beerOrder, response.isValid()));
     }
 
+    private void applyValidationResult(BeerOrder beerOrder, boolean isValid) {
+        if (isValid) {
+            sendBeerOrderEvent(beerOrder, BeerOrderEventEnum.VALIDATION_PASSED);
+            sendBeerOrderEvent(beerOrder, BeerOrderEventEnum.ALLOCATE_ORDER);
+        } else {
+            sendBeerOrderEvent(beerOrder, BeerOrderEventEnum.VALIDATION_FAILED);
+        }
+    }
 
     @Override
     public void processAllocateOrderResponse(BeerOrderDto beerOrderDto,
                                              Boolean allocationError,
                                              Boolean pendingInventory) {
+        handle(beerOrderDto.getId(), BeerOrderStatusEnum.ALLOCATION_PENDING,
+               beerOrder -> applyAllocateOrderResponse(beerOrder, beerOrderDto, allocationError, pendingInventory));
+    }
 
-        UUID beerOrderId = beerOrderDto.getId();
+    @Override
+    public void processAllocateOrderResponses(List<AllocateOrderResponse> responses) {
+        applyBatch(responses, response -> response.getBeerOrderDto().getId(), BeerOrderStatusEnum.ALLOCATION_PENDING,
+                   (beerOrder, response) -> applyAllocateOrderResponse(beerOrder,
+                                                                       response.getBeerOrderDto(),
+                                                                       response.getAllocationError(),
+                                                                       response.getPendingInventory()));
+    }
 
-        if (!awaitForStatus(beerOrderId, BeerOrderStatusEnum.ALLOCATION_PENDING)) {
-            log.error("RACE CONDITION HIT");
+    private void applyAllocateOrderResponse(BeerOrder beerOrder,
+                                            BeerOrderDto beerOrderDto,
+                                            Boolean allocationError,
+                                            Boolean pendingInventory) {
+        if (allocationError) {
+            sendBeerOrderEvent(beerOrder, BeerOrderEventEnum.ALLOCATION_FAILED);
+        } else if (pendingInventory) {
+            sendBeerOrderEvent(beerOrder, BeerOrderEventEnum.ALLOCATION_NO_INVENTORY);
+            updateAllocatedQty(beerOrderDto);
+        } else {
+            sendBeerOrderEvent(beerOrder, BeerOrderEventEnum.ALLOCATION_SUCCESS);
+            updateAllocatedQty(beerOrderDto);
         }
-
-        beerOrderRepository.findById(beerOrderId).ifPresentOrElse(
-                beerOrder -> {
-                    if (allocationError) {
-                        sendBeerOrderEvent(beerOrder, BeerOrderEventEnum.ALLOCATION_FAILED);
-                    } else if (pendingInventory) {
-                        sendBeerOrderEvent(beerOrder, BeerOrderEventEnum.ALLOCATION_NO_INVENTORY);
-                        updateAllocatedQty(beerOrderDto);
-                    } else {
-                        sendBeerOrderEvent(beerOrder, BeerOrderEventEnum.ALLOCATION_SUCCESS);
-                        updateAllocatedQty(beerOrderDto);
-                    }
-                },
-                () -> {
-                    log.error("Beer order not found: " + beerOrderId);
-                }
-        );
     }
 
-    @Transactional
     @Override
     public void processDeallocateOrderResponse(BeerOrderDto beerOrderDto) {
+        beerOrderEventStripes.run(beerOrderDto.getId(), () -> transactionTemplate.executeWithoutResult(
+                status -> applyDeallocateOrderResponse(beerOrderDto)));
+    }
+
+    @Override
+    public void processDeallocateOrderResponses(List<BeerOrderDto> beerOrderDtos) {
+        transactionTemplate.executeWithoutResult(status -> beerOrderBatchWriter.run(
+                () -> beerOrderDtos.forEach(this::applyDeallocateOrderResponse)));
+    }
+
+    private void applyDeallocateOrderResponse(BeerOrderDto beerOrderDto) {
         updateAllocatedQty(beerOrderDto);
         // Check no inventory remains allocated.
         beerOrderDto.getBeerOrderLines().forEach(beerOrderLineDto -> {
@@ -118,120 +157,107 @@ public class BeerOrderManagerImpl implements BeerOrderManager {
         });
     }
 
-    @Transactional
     @Override
     public void pickupBeerOrder(UUID beerOrderId) {
-        beerOrderRepository.findById(beerOrderId).ifPresentOrElse(
-                beerOrder -> {
-                    if (beerOrder.getOrderStatus() != ALLOCATED)
-                        throw new IllegalStateException(
-                                "Order [" + beerOrderId + "] must be in the " + ALLOCATED + " state in order to be picked up.");
-                    sendBeerOrderEvent(beerOrder, BEER_ORDER_PICKED_UP);
-                },
-                () -> {
-                    log.error("Beer order not found: " + beerOrderId);
-                }
-        );
+        handle(beerOrderId, null, beerOrder -> {
+            if (beerOrder.getOrderStatus() != ALLOCATED)
+                throw new IllegalStateException(
+                        "Order [" + beerOrderId + "] must be in the " + ALLOCATED + " state in order to be picked up.");
+            sendBeerOrderEvent(beerOrder, BEER_ORDER_PICKED_UP);
+        });
     }
 
-    @Transactional
     @Override
     public void cancelBeerOrder(UUID beerOrderId) {
-        beerOrderRepository.findById(beerOrderId).ifPresentOrElse(
-                beerOrder -> {
-                    sendBeerOrderEvent(beerOrder, CANCEL_ORDER);
-                },
-                () -> {
-                    log.error("Beer order not found: " + beerOrderId);
-                }
-        );
+        handle(beerOrderId, null, beerOrder -> sendBeerOrderEvent(beerOrder, CANCEL_ORDER));
     }
 
+    /**
+     * Run the work on the order's stripe in one transaction, and wait for it.
+     */
+    private void handle(UUID beerOrderId, BeerOrderStatusEnum expectedStatus, Consumer<BeerOrder> work) {
+        beerOrderEventStripes.run(beerOrderId, () -> applyInTransaction(beerOrderId, expectedStatus, work));
+    }
+
+    /**
+     * Run the work unless the order is missing or, when an expected status is given, in any other status.
+     */
+    private void applyInTransaction(UUID beerOrderId, BeerOrderStatusEnum expectedStatus, Consumer<BeerOrder> work) {
+        transactionTemplate.executeWithoutResult(status -> {
+            Optional<BeerOrder> beerOrder = beerOrderRepository.findAggregateById(beerOrderId);
+            if (beerOrder.isEmpty()) {
+                log.error("Beer order not found: " + beerOrderId);
+            } else if (expectedStatus != null && beerOrder.get().getOrderStatus() != expectedStatus) {
+                log.warn("Dropping duplicate or stale event for order " + beerOrderId + ": expected "
+                         + expectedStatus + " but it is " + beerOrder.get().getOrderStatus());
+                meterRegistry.counter(DROPPED_EVENTS, "expected", expectedStatus.name(),
+                                      "status", beerOrder.get().getOrderStatus().name()).increment();
+            } else {
+                work.accept(beerOrder.get());
+            }
+        });
+    }
+
+    /**
+     * Apply a batch of responses in one transaction, loading all their orders in one query and writing through
+     * {@link BeerOrderBatchWriter}. Unlike {@link #handle}, this doesn't tolerate an order in another status: it
+     * throws and the whole batch rolls back. It runs on the caller's thread, not the orders' stripes, so that status
+     * check and the batch writer's locked one are all that keep it in order with the orders' other events.
+     */
+    private <T> void applyBatch(List<T> responses,
+                                Function<T, UUID> orderIdOf,
+                                BeerOrderStatusEnum expectedStatus,
+                                BiConsumer<BeerOrder, T> work) {
+        transactionTemplate.executeWithoutResult(status -> beerOrderBatchWriter.run(() -> {
+            Map<UUID, BeerOrder> beerOrders = beerOrderRepository
+                    .findAggregatesByIdIn(responses.stream().map(orderIdOf).collect(Collectors.toSet()))
+                    .stream()
+                    .collect(Collectors.toMap(BeerOrder::getId, Function.identity()));
+            responses.forEach(response -> {
+                UUID beerOrderId = orderIdOf.apply(response);
+                BeerOrder beerOrder = beerOrders.get(beerOrderId);
+                if (beerOrder == null || beerOrder.getOrderStatus() != expectedStatus) {
+                    throw new IllegalStateException("Order " + beerOrderId + " is not " + expectedStatus);
+                }
+                work.accept(beerOrder, response);
+            });
+        }));
+    }
 
     private void updateAllocatedQty(BeerOrderDto beerOrderDto) {
         UUID beerOrderId = beerOrderDto.getId();
 
-        beerOrderRepository.findById(beerOrderDto.getId()).ifPresentOrElse(
-                beerOrder -> {
-                    beerOrder.getBeerOrderLines().forEach(beerOrderLine -> {
-                        beerOrderDto.getBeerOrderLines().forEach(beerOrderLineDto ->  {
-                            if (beerOrderLine.getId().equals(beerOrderLineDto.getId())) {
-                                beerOrderLine.setQuantityAllocated(beerOrderLineDto.getQuantityAllocated());
-                            }
-                        });
-                    });
-                    log.debug("Saving updated allocated quantity on lines for order id: " + beerOrderId);
-                    beerOrderRepository.saveAndFlush(beerOrder);
-                },
-                () -> {
-                    log.error("Beer order not found: " + beerOrderId);
-                }
-        );
+        log.debug("Saving updated allocated quantity on lines for order id: " + beerOrderId);
+        beerOrderDto.getBeerOrderLines().forEach(beerOrderLineDto -> {
+            if (beerOrderBatchWriter.isActive()) {
+                beerOrderBatchWriter.updateQuantityAllocated(
+                        beerOrderLineDto.getId(), beerOrderId, beerOrderLineDto.getQuantityAllocated());
+            } else if (beerOrderLineRepository.updateQuantityAllocated(
+                    beerOrderLineDto.getId(), beerOrderId, beerOrderLineDto.getQuantityAllocated()) == 0) {
+                log.error("Beer order line not found: " + beerOrderLineDto.getId() + " on order " + beerOrderId);
+            }
+        });
     }
 
     private void sendBeerOrderEvent(BeerOrder beerOrder, BeerOrderEventEnum eventEnum) {
-        StateMachine<BeerOrderStatusEnum, BeerOrderEventEnum> sm = build(beerOrder);
         Message<BeerOrderEventEnum> msg = MessageBuilder.withPayload(eventEnum)
-                .setHeader(ORDER_ID_HEADER, beerOrder.getId().toString())
+                .setHeader(ORDER_ID_HEADER, beerOrder.getId())
+                .setHeader(ORDER_VERSION_HEADER, beerOrder.getVersion())
+                .setHeader(ORDER_HEADER, beerOrder)
                 .build();
-        sm.sendEvent(msg);
+        beerOrderTransitionEngine.sendEvent(beerOrder.getOrderStatus(), msg);
     }
 
-
-    private boolean awaitForStatus(UUID beerOrderId, BeerOrderStatusEnum... validStatesArray) {
-
-        Set<BeerOrderStatusEnum> validStates = new HashSet<>(Arrays.asList(validStatesArray));
-
-        AtomicBoolean found = new AtomicBoolean(false);
-        AtomicInteger loopCount = new AtomicInteger(0);
-
-        while (!found.get()) {
-            if (loopCount.incrementAndGet() > 50) {
-                // found.set(true);
-                log.debug("Loop Retries exceeded");
-                break;
-            }
-
-            beerOrderRepository.findById(beerOrderId).ifPresentOrElse(beerOrder -> {
-                if (validStates.contains(beerOrder.getOrderStatus())) {
-                    found.set(true);
-                    log.debug("Order Found");
-                } else {
-//                     log.debug("Order Status Not Equal. Expected: " + validStates + " Found: " + beerOrder.getOrderStatus().name());
+    private static void afterCommit(Runnable task) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    task.run();
                 }
-            }, () -> {
-//                 log.debug("Order Id Not Found");
             });
-
-            if (!found.get()) {
-                try {
-//                    log.debug("Sleeping for retry");
-                    Thread.sleep(100);
-                } catch (Exception e) {
-                    // do nothing
-                }
-            }
+        } else {
+            task.run();
         }
-
-        return found.get();
-    }
-
-    private StateMachine<BeerOrderStatusEnum, BeerOrderEventEnum> build(BeerOrder beerOrder) {
-        StateMachine<BeerOrderStatusEnum, BeerOrderEventEnum> sm = stateMachineFactory.getStateMachine(beerOrder.getId());
-
-        sm.stop();
-
-        sm.getStateMachineAccessor()
-                .doWithAllRegions(sma -> {
-                    sma.resetStateMachine(new DefaultStateMachineContext<>(beerOrder.getOrderStatus(),
-                                                                           null,
-                                                                           null,
-                                                                           null));
-                    sma.addStateMachineInterceptor(beerOrderStateChangeInterceptor);
-                });
-
-        sm.start();
-
-        return sm;
     }
 }
@@ -20,16 +20,55 @@ package guru.sfg.beer.order.service.services;
 
 import guru.sfg.brewery.model.BeerOrderDto;
 import guru.sfg.brewery.model.BeerOrderPagedList;
+import guru.sfg.brewery.model.CursorPage;
+import guru.sfg.brewery.model.CustomerDto;
 import guru.sfg.brewery.model.CustomerPagedList;
 import org.springframework.data.domain.Pageable;
 
+import java.util.OptionalLong;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 public interface BeerOrderService {
     BeerOrderPagedList listOrders(UUID customerId, Pageable pageable);
 
+    /**
+     * The same page as {@link #listOrders(UUID, Pageable)}, with each order handed to {@code sink} as soon as it has
+     * been mapped rather than collected first.
+     *
+     * @return the customer's total number of orders, or empty if there is no such customer.
+     */
+    OptionalLong listOrders(UUID customerId, Pageable pageable, Consumer<BeerOrderDto> sink);
+
     CustomerPagedList listCustomers(Pageable pageable);
 
+    /**
+     * The same page as {@link #listCustomers(Pageable)}, with each customer handed to {@code sink} as it is mapped.
+     *
+     * @return the total number of customers.
+     */
+    long listCustomers(Pageable pageable, Consumer<CustomerDto> sink);
+
+    /**
+     * Keyset-paged listing of a customer's orders, oldest first.
+     *
+     * @param after        where the previous page ended, or null for the first page.
+     * @param includeTotal whether to count the customer's orders, which costs a query the page itself doesn't need.
+     */
+    CursorPage<BeerOrderDto> listOrders(UUID customerId, PageCursor after, int pageSize, boolean includeTotal);
+
+    /**
+     * Keyset-paged listing of customers, oldest first; see {@link #listOrders(UUID, PageCursor, int, boolean)}.
+     */
+    CursorPage<CustomerDto> listCustomers(PageCursor after, int pageSize, boolean includeTotal);
+
+    /**
+     * Hand each of a customer's orders to {@code sink}, oldest first, without holding the whole history in memory.
+     *
+     * @return false if there is no such customer.
+     */
+    boolean exportOrders(UUID customerId, Consumer<BeerOrderDto> sink);
+
     BeerOrderDto placeOrder(UUID customerId, BeerOrderDto beerOrderDto);
 
     BeerOrderDto getOrderById(UUID customerId, UUID orderId);
@@ -22,49 +22,112 @@ import guru.sfg.beer.order.service.domain.BeerOrderStatusEnum;
 import guru.sfg.beer.order.service.domain.Customer;
 import guru.sfg.beer.order.service.repositories.BeerOrderRepository;
 import guru.sfg.beer.order.service.repositories.CustomerRepository;
+import guru.sfg.beer.order.service.web.mappers.BeerOrderDtoEnricher;
 import guru.sfg.beer.order.service.web.mappers.BeerOrderMapper;
 import guru.sfg.beer.order.service.web.mappers.CustomerMapper;
+import guru.sfg.brewery.model.BeerDto;
 import guru.sfg.brewery.model.BeerOrderDto;
+import guru.sfg.brewery.model.BeerOrderLineDto;
 import guru.sfg.brewery.model.BeerOrderPagedList;
+import guru.sfg.brewery.model.CursorPage;
+import guru.sfg.brewery.model.CustomerDto;
 import guru.sfg.brewery.model.CustomerPagedList;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.persistence.EntityManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class BeerOrderServiceImpl implements BeerOrderService {
 
-    private final BeerOrderRepository beerOrderRepository;
-    private final CustomerRepository  customerRepository;
-    private final BeerOrderMapper     beerOrderMapper;
-    private final BeerOrderManager    beerOrderManager;
-    private final CustomerMapper      customerMapper;
+    private static final Sort DEFAULT_ORDER_SORT = Sort.by("createdDate", "id");
+    private static final int  MAPPING_CHUNK_SIZE = 100;
+
+    private final BeerOrderRepository  beerOrderRepository;
+    private final CustomerRepository   customerRepository;
+    private final BeerOrderMapper      beerOrderMapper;
+    private final BeerOrderDtoEnricher beerOrderDtoEnricher;
+    private final BeerOrderManager     beerOrderManager;
+    private final CustomerMapper       customerMapper;
+    private final EntityManager        entityManager;
+    private final TransactionTemplate  transactionTemplate;
 
+    @Transactional(readOnly = true)
     @Override
     public BeerOrderPagedList listOrders(UUID customerId, Pageable pageable) {
+        List<BeerOrderDto> content = new ArrayList<>();
+        OptionalLong total = listOrders(customerId, pageable, content::add);
+        return total.isPresent()
+               ? new BeerOrderPagedList(content, PageRequest.of(pageable.getPageNumber(), pageable.getPageSize()),
+                                        total.getAsLong())
+               : null;
+    }
+
+    /**
+     * Pages over order ids first, then loads that page's orders with their lines in one query.
+     */
+    @Transactional(readOnly = true)
+    @Override
+    public OptionalLong listOrders(UUID customerId, Pageable pageable, Consumer<BeerOrderDto> sink) {
+        Optional<Customer> customerOptional = customerRepository.findById(customerId);
+
+        if (customerOptional.isPresent()) {
+            // Without a sort, pages could overlap or skip orders.
+            Pageable ordered = pageable.getSort().isSorted()
+                               ? pageable
+                               : PageRequest.of(pageable.getPageNumber(), pageable.getPageSize(), DEFAULT_ORDER_SORT);
+            Page<UUID> idPage = beerOrderRepository.findIdsByCustomer(customerOptional.get(), ordered);
+
+            mapInChunks(loadOrders(idPage.getContent()).stream(), sink);
+            return OptionalLong.of(idPage.getTotalElements());
+        } else {
+            return OptionalLong.empty();
+        }
+    }
+
+    @Transactional(readOnly = true)
+    @Override
+    public CursorPage<BeerOrderDto> listOrders(UUID customerId, PageCursor after, int pageSize, boolean includeTotal) {
         Optional<Customer> customerOptional = customerRepository.findById(customerId);
 
         if (customerOptional.isPresent()) {
-            Page<BeerOrder> beerOrderPage =
-                    beerOrderRepository.findAllByCustomer(customerOptional.get(), pageable);
-
-            return new BeerOrderPagedList(beerOrderPage
-                                                  .stream()
-                                                  .map(beerOrderMapper::beerOrderToDto)
-                                                  .collect(Collectors.toList()), PageRequest.of(
-                    beerOrderPage.getPageable().getPageNumber(),
-                    beerOrderPage.getPageable().getPageSize()),
-                                          beerOrderPage.getTotalElements());
+            Customer customer = customerOptional.get();
+            // One extra row tells whether there is a next page.
+            Pageable limit = PageRequest.of(0, pageSize + 1);
+            List<UUID> ids = after == null
+                             ? beerOrderRepository.findFirstIdsByCustomer(customer, limit)
+                             : beerOrderRepository.findIdsByCustomerAfter(customer, after.getCreatedDate(),
+                                                                          after.getId(), limit);
+
+            List<BeerOrder> beerOrders = loadOrders(ids.subList(0, Math.min(ids.size(), pageSize)));
+            String nextCursor = ids.size() > pageSize && !beerOrders.isEmpty()
+                                ? PageCursor.after(beerOrders.get(beerOrders.size() - 1)).encode()
+                                : null;
+            return new CursorPage<>(toDtos(beerOrders), nextCursor,
+                                    includeTotal ? beerOrderRepository.countByCustomer(customer) : null);
         } else {
             return null;
         }
@@ -72,39 +135,80 @@ public class BeerOrderServiceImpl implements BeerOrderService {
 
     @Override
     public CustomerPagedList listCustomers(Pageable pageable) {
+        List<CustomerDto> content = new ArrayList<>();
+        long total = listCustomers(pageable, content::add);
+        return new CustomerPagedList(content, PageRequest.of(pageable.getPageNumber(), pageable.getPageSize()), total);
+    }
+
+    @Override
+    public long listCustomers(Pageable pageable, Consumer<CustomerDto> sink) {
         Page<Customer> customerPage = customerRepository.findAll(pageable);
-        return new CustomerPagedList(
-                customerPage.stream()
-                        .map(customerMapper::customerToDto)
-                        .collect(Collectors.toList()), PageRequest.of(
-                customerPage.getPageable().getPageNumber(),
-                customerPage.getPageable().getPageSize()),
-                customerPage.getTotalElements());
+        customerPage.forEach(customer -> sink.accept(customerMapper.customerToDto(customer)));
+        return customerPage.getTotalElements();
     }
 
-    @Transactional
     @Override
-    public BeerOrderDto placeOrder(UUID customerId, BeerOrderDto beerOrderDto) {
+    public CursorPage<CustomerDto> listCustomers(PageCursor after, int pageSize, boolean includeTotal) {
+        Pageable limit = PageRequest.of(0, pageSize + 1);
+        List<Customer> customers = after == null
+                                   ? customerRepository.findFirst(limit)
+                                   : customerRepository.findAfter(after.getCreatedDate(), after.getId(), limit);
+
+        String nextCursor = customers.size() > pageSize ? PageCursor.after(customers.get(pageSize - 1)).encode() : null;
+        return new CursorPage<>(customers.stream()
+                                        .limit(pageSize)
+                                        .map(customerMapper::customerToDto)
+                                        .collect(Collectors.toList()),
+                                nextCursor,
+                                includeTotal ? customerRepository.count() : null);
+    }
+
+    @Transactional(readOnly = true)
+    @Override
+    public boolean exportOrders(UUID customerId, Consumer<BeerOrderDto> sink) {
         Optional<Customer> customerOptional = customerRepository.findById(customerId);
 
         if (customerOptional.isPresent()) {
-            BeerOrder beerOrder = beerOrderMapper.dtoToBeerOrder(beerOrderDto);
-            beerOrder.setId(null); //should not be set by outside client
-            beerOrder.setCustomer(customerOptional.get());
-            beerOrder.setOrderStatus(BeerOrderStatusEnum.NEW);
+            try (Stream<BeerOrder> beerOrders = beerOrderRepository.streamAllByCustomer(customerOptional.get())) {
+                mapInChunks(beerOrders, sink);
+            }
+            return true;
+        } else {
+            return false;
+        }
+    }
 
-            beerOrder.getBeerOrderLines().forEach(line -> line.setBeerOrder(beerOrder));
+    /**
+     * The order's beers are resolved before its transaction opens, so no connection is held over the beer service
+     * calls, and an order with a line whose beer can't be resolved is rejected.
+     */
+    @Override
+    public BeerOrderDto placeOrder(UUID customerId, BeerOrderDto beerOrderDto) {
+        Map<String, BeerDto> beers = findBeers(beerOrderDto);
 
-            BeerOrder savedBeerOrder = beerOrderManager.newBeerOrder(beerOrder);
-            return beerOrderMapper.beerOrderToDto(savedBeerOrder);
-        }
-        //todo add exception type
-        throw new RuntimeException("Customer Not Found");
+        return transactionTemplate.execute(status -> {
+            Optional<Customer> customerOptional = customerRepository.findById(customerId);
+
+            if (customerOptional.isPresent()) {
+                BeerOrder beerOrder = beerOrderMapper.dtoToBeerOrder(beerOrderDto);
+                beerOrder.setId(null); //should not be set by outside client
+                beerOrder.setCustomer(customerOptional.get());
+                beerOrder.setOrderStatus(BeerOrderStatusEnum.NEW);
+
+                beerOrder.getBeerOrderLines().forEach(line -> line.setBeerOrder(beerOrder));
+                storeBeerDetails(beerOrder, beers);
+
+                BeerOrder savedBeerOrder = beerOrderManager.newBeerOrder(beerOrder);
+                return beerOrderMapper.beerOrderToDto(savedBeerOrder);
+            }
+            //todo add exception type
+            throw new RuntimeException("Customer Not Found");
+        });
     }
 
     @Override
     public BeerOrderDto getOrderById(UUID customerId, UUID orderId) {
-        return beerOrderMapper.beerOrderToDto(getOrder(customerId, orderId));
+        return beerOrderDtoEnricher.enrich(beerOrderMapper.beerOrderToDto(getOrder(customerId, orderId)));
     }
 
     @Override
@@ -112,6 +216,76 @@ public class BeerOrderServiceImpl implements BeerOrderService {
         beerOrderManager.pickupBeerOrder(orderId);
     }
 
+    /**
+     * The orders with their lines, in the order of {@code ids}.
+     */
+    private List<BeerOrder> loadOrders(List<UUID> ids) {
+        Map<UUID, BeerOrder> beerOrders = beerOrderRepository.findAggregatesByIdIn(ids).stream()
+                .collect(Collectors.toMap(BeerOrder::getId, Function.identity()));
+        return ids.stream().map(beerOrders::get).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    /**
+     * Orders are mapped and handed on in chunks, so lines stored without beer details are looked up a chunk at a
+     * time, and are detached as soon as they have been mapped.
+     */
+    private void mapInChunks(Stream<BeerOrder> beerOrders, Consumer<BeerOrderDto> sink) {
+        List<BeerOrderDto> chunk = new ArrayList<>(MAPPING_CHUNK_SIZE);
+        beerOrders.forEach(beerOrder -> {
+            chunk.add(beerOrderMapper.beerOrderToDto(beerOrder));
+            entityManager.detach(beerOrder);
+            if (chunk.size() == MAPPING_CHUNK_SIZE) {
+                beerOrderDtoEnricher.enrich(chunk).forEach(sink);
+                chunk.clear();
+            }
+        });
+        beerOrderDtoEnricher.enrich(chunk).forEach(sink);
+    }
+
+    /**
+     * Lines stored without beer details have them looked up for all the orders in one go.
+     */
+    private List<BeerOrderDto> toDtos(List<BeerOrder> beerOrders) {
+        return beerOrderDtoEnricher.enrich(beerOrders.stream()
+                                                   .map(beerOrderMapper::beerOrderToDto)
+                                                   .collect(Collectors.toList()));
+    }
+
+    /**
+     * @return the beer for every line of the order, by UPC.
+     * @throws UnknownBeersException if any line's beer can't be resolved.
+     */
+    private Map<String, BeerDto> findBeers(BeerOrderDto beerOrderDto) {
+        List<String> upcs = beerOrderDto.getBeerOrderLines() == null
+                            ? List.of()
+                            : beerOrderDto.getBeerOrderLines().stream()
+                                    .map(BeerOrderLineDto::getUpc)
+                                    .collect(Collectors.toList());
+        Map<String, BeerDto> beers = beerOrderDtoEnricher.findBeers(upcs);
+
+        Set<String> unknown = upcs.stream()
+                .filter(upc -> !beers.containsKey(upc))
+                .map(String::valueOf)
+                .collect(Collectors.toCollection(TreeSet::new));
+        if (!unknown.isEmpty()) {
+            throw new UnknownBeersException(unknown);
+        }
+        return beers;
+    }
+
+    /**
+     * Keep each line's beer, resolved once at placement, with the line. Whatever the client sent for it is discarded.
+     */
+    private void storeBeerDetails(BeerOrder beerOrder, Map<String, BeerDto> beers) {
+        beerOrder.getBeerOrderLines().forEach(line -> {
+            BeerDto beer = beers.get(line.getUpc());
+            line.setBeerId(beer.getId());
+            line.setBeerName(beer.getBeerName());
+            line.setBeerStyle(beer.getBeerStyle());
+            line.setBeerPrice(beer.getPrice());
+        });
+    }
+
     private BeerOrder getOrder(UUID customerId, UUID orderId){
         Optional<Customer> customerOptional = customerRepository.findById(customerId);
 
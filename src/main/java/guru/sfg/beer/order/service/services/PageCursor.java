@@ -0,0 +1,48 @@
+package guru.sfg.beer.order.service.services;
+
+import guru.sfg.beer.order.service.domain.BaseEntity;
+import lombok.Value;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Position in a listing ordered by {@code (createdDate, id)}: the key of the last entity returned. Clients see it as
+ * an opaque token; the next page starts strictly after it, so paging costs the same however deep it goes.
+ */
+@Value
+public class PageCursor {
+
+    Timestamp createdDate;
+    UUID      id;
+
+    public static PageCursor after(BaseEntity last) {
+        return new PageCursor(last.getCreatedDate(), last.getId());
+    }
+
+    public String encode() {
+        String key = createdDate.toInstant() + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the token wasn't made by {@link #encode}.
+     */
+    public static PageCursor decode(String token) {
+        try {
+            String key = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separator = key.indexOf('|');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Malformed page cursor");
+            }
+            return new PageCursor(Timestamp.from(Instant.parse(key.substring(0, separator))),
+                                  UUID.fromString(key.substring(separator + 1)));
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Malformed page cursor", e);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package guru.sfg.beer.order.service.services;
+
+import lombok.Getter;
+
+import java.util.Set;
+
+/**
+ * An order has lines whose beers couldn't be resolved, either because the beer service doesn't know their UPCs or
+ * because it didn't answer within the enrichment deadline. The order isn't placed.
+ */
+@Getter
+public class UnknownBeersException extends RuntimeException {
+
+    private final Set<String> upcs;
+
+    public UnknownBeersException(Set<String> upcs) {
+        super("No beers found for UPCs " + upcs);
+        this.upcs = upcs;
+    }
+}
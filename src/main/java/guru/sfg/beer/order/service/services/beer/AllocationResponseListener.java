@@ -3,22 +3,42 @@ package guru.sfg.beer.order.service.services.beer;
 import guru.sfg.beer.order.service.config.JmsConfig;
 import guru.sfg.beer.order.service.services.BeerOrderManager;
 import guru.sfg.brewery.model.events.AllocateOrderResponse;
+import guru.sfg.brewery.model.events.AllocateOrdersResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.jms.annotation.JmsListener;
 import org.springframework.stereotype.Service;
 
+import javax.jms.JMSException;
+import javax.jms.Session;
+
+@ConditionalOnProperty(value = ResponseBatchConsumer.ENABLED_PROPERTY, havingValue = "false", matchIfMissing = true)
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class AllocationResponseListener {
     private final BeerOrderManager beerOrderManager;
+    private final BatchedResponses batchedResponses;
 
-    @JmsListener(destination = JmsConfig.ALLOCATE_ORDER_RESPONSE_QUEUE)
+    @JmsListener(destination = JmsConfig.ALLOCATE_ORDER_RESPONSE_QUEUE,
+                 containerFactory = JmsConfig.ALLOCATE_RESPONSE_CONTAINER_FACTORY)
     public void listen(AllocateOrderResponse event) {
         log.debug("Received AllocateOrderResponse: " + event);
         beerOrderManager.processAllocateOrderResponse(event.getBeerOrderDto(),
                                                       event.getAllocationError(),
                                                       event.getPendingInventory());
     }
+
+    /**
+     * Responses that fail are requeued on their own, so the broker redelivers them without replaying the rest of the
+     * batch.
+     */
+    @JmsListener(destination = JmsConfig.ALLOCATE_ORDER_RESPONSE_BATCH_QUEUE,
+                 containerFactory = JmsConfig.ALLOCATE_RESPONSE_CONTAINER_FACTORY)
+    public void listen(AllocateOrdersResponse batch, Session session) throws JMSException {
+        log.debug("Received " + batch.getResponses().size() + " AllocateOrderResponses");
+        batchedResponses.apply(session, batch.getResponses(), this::listen, JmsConfig.ALLOCATE_ORDER_RESPONSE_QUEUE,
+                               response -> response);
+    }
 }
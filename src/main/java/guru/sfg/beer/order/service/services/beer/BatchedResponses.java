@@ -0,0 +1,67 @@
+package guru.sfg.beer.order.service.services.beer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jms.support.converter.MessageConverter;
+import org.springframework.stereotype.Component;
+
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Applies the responses of a batch message one at a time for the per-message listeners. A response that fails is
+ * sent on to its single-response queue in the listener's transacted session, so it is committed together with the
+ * rest of the batch, isn't lost, and goes through the broker's redelivery there without replaying the responses
+ * that succeeded. Requeued responses are counted in {@code sfg.brewery.response.batch.requeued}.
+ */
+@Slf4j
+@Component
+public class BatchedResponses {
+
+    private final MessageConverter messageConverter;
+    private final Counter          requeued;
+
+    public BatchedResponses(MessageConverter messageConverter, MeterRegistry meterRegistry) {
+        this.messageConverter = messageConverter;
+        this.requeued = meterRegistry.counter("sfg.brewery.response.batch.requeued");
+    }
+
+    /**
+     * @param single     applies one response.
+     * @param singleForm the response as its single-response queue carries it.
+     */
+    public <T> void apply(Session session,
+                          List<T> responses,
+                          Consumer<T> single,
+                          String singleQueue,
+                          Function<T, Object> singleForm) throws JMSException {
+        List<T> failed = new ArrayList<>();
+        for (T response : responses) {
+            try {
+                single.accept(response);
+            } catch (RuntimeException e) {
+                log.warn("Response failed, requeueing it on " + singleQueue + ": " + response, e);
+                failed.add(response);
+            }
+        }
+        if (failed.isEmpty()) {
+            return;
+        }
+
+        MessageProducer producer = session.createProducer(session.createQueue(singleQueue));
+        try {
+            for (T response : failed) {
+                producer.send(messageConverter.toMessage(singleForm.apply(response), session));
+                requeued.increment();
+            }
+        } finally {
+            producer.close();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package guru.sfg.beer.order.service.services.beer;
+
+import guru.sfg.brewery.model.BeerDto;
+import guru.sfg.brewery.model.BeerPagedList;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A local copy of the whole beer catalog, indexed by UPC and by id, so order lines can be enriched without a network
+ * call. Enabled with {@code sfg.brewery.beer-catalog.enabled}; until the first sync completes, and for beers added
+ * since the last one, lookups come back empty and callers fall back to {@link BeerService}.
+ * <p>
+ * Each sync pages through the catalog and builds a new immutable {@link Snapshot}, which replaces the current one in
+ * a single step. If nothing changed the current snapshot is kept and only its sync time moves on.
+ */
+@Slf4j
+@ConfigurationProperties(prefix = "sfg.brewery.beer-catalog")
+@Component
+public class BeerCatalog {
+
+    private final BeerService  beerService;
+    private final TaskExecutor taskExecutor;
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(Snapshot.EMPTY);
+    private final AtomicBoolean             syncing  = new AtomicBoolean();
+    private final Counter                   changes;
+
+    @Setter
+    private boolean enabled = false;
+
+    @Setter
+    private int pageSize = 500;
+
+    public BeerCatalog(BeerService beerService, TaskExecutor taskExecutor, MeterRegistry meterRegistry) {
+        this.beerService = beerService;
+        this.taskExecutor = taskExecutor;
+
+        changes = meterRegistry.counter("sfg.brewery.beer.catalog.changes");
+        meterRegistry.gauge("sfg.brewery.beer.catalog.size", snapshot, s -> s.get().byUpc.size());
+        TimeGauge.builder("sfg.brewery.beer.catalog.age", snapshot, TimeUnit.MILLISECONDS,
+                          s -> s.get().syncedAt == 0 ? Double.NaN : System.currentTimeMillis() - s.get().syncedAt)
+                .register(meterRegistry);
+    }
+
+    public Optional<BeerDto> findByUpc(String upc) {
+        return Optional.ofNullable(snapshot.get().byUpc.get(upc));
+    }
+
+    public Optional<BeerDto> findById(UUID beerId) {
+        return Optional.ofNullable(snapshot.get().byId.get(beerId));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        if (enabled) {
+            taskExecutor.execute(this::sync);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${sfg.brewery.beer-catalog.refresh-interval:PT5M}")
+    public void refresh() {
+        if (enabled) {
+            sync();
+        }
+    }
+
+    /**
+     * Page through the catalog and swap in the result. A failed sync leaves the current snapshot in place.
+     */
+    public void sync() {
+        if (!syncing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Map<String, BeerDto> byUpc = new HashMap<>();
+            BeerPagedList page;
+            int pageNumber = 0;
+            do {
+                page = beerService.listBeers(pageNumber++, pageSize);
+                page.getContent().stream()
+                        .filter(beer -> beer.getUpc() != null && beer.getId() != null)
+                        .forEach(beer -> byUpc.put(beer.getUpc(), beer));
+            } while (page.hasNext());
+
+            Snapshot current = snapshot.get();
+            int changed = current.countChanges(byUpc);
+            snapshot.set(changed == 0 ? current.resynced() : new Snapshot(byUpc));
+            changes.increment(changed);
+            log.debug("Beer catalog synced: " + byUpc.size() + " beers, " + changed + " changed");
+        } catch (RuntimeException e) {
+            log.error("Beer catalog sync failed, keeping the previous snapshot", e);
+        } finally {
+            syncing.set(false);
+        }
+    }
+
+    private static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(Map.of(), Map.of(), 0);
+
+        final Map<String, BeerDto> byUpc;
+        final Map<UUID, BeerDto>   byId;
+        final long                 syncedAt;
+
+        Snapshot(Map<String, BeerDto> byUpc) {
+            Map<UUID, BeerDto> byId = new HashMap<>();
+            byUpc.values().forEach(beer -> byId.put(beer.getId(), beer));
+            this.byUpc = Map.copyOf(byUpc);
+            this.byId = Map.copyOf(byId);
+            this.syncedAt = System.currentTimeMillis();
+        }
+
+        private Snapshot(Map<String, BeerDto> byUpc, Map<UUID, BeerDto> byId, long syncedAt) {
+            this.byUpc = byUpc;
+            this.byId = byId;
+            this.syncedAt = syncedAt;
+        }
+
+        Snapshot resynced() {
+            return new Snapshot(byUpc, byId, System.currentTimeMillis());
+        }
+
+        /**
+         * Beers added, changed or removed in the given catalog relative to this snapshot.
+         */
+        int countChanges(Map<String, BeerDto> latest) {
+            int changed = (int) latest.entrySet().stream()
+                    .filter(e -> !Objects.equals(byUpc.get(e.getKey()), e.getValue()))
+                    .count();
+            int removed = (int) byUpc.keySet().stream().filter(upc -> !latest.containsKey(upc)).count();
+            return changed + removed;
+        }
+    }
+}
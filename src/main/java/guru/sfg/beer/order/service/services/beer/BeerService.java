@@ -1,12 +1,38 @@
 package guru.sfg.beer.order.service.services.beer;
 
 import guru.sfg.brewery.model.BeerDto;
+import guru.sfg.brewery.model.BeerPagedList;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 public interface BeerService {
     Optional<BeerDto> getBeerById(UUID beerId);
 
     Optional<BeerDto> getBeerByUpc(String upc);
+
+    /**
+     * Look up several beers in one round trip.
+     *
+     * @return the beers found, by UPC; unknown UPCs are left out.
+     */
+    Map<String, BeerDto> getBeersByUpcs(Collection<String> upcs);
+
+    /**
+     * {@link #getBeerByUpc} on the beer client pool, so lookups for many UPCs can be in flight at once.
+     */
+    CompletableFuture<Optional<BeerDto>> getBeerByUpcAsync(String upc);
+
+    /**
+     * {@link #getBeersByUpcs} on the beer client pool.
+     */
+    CompletableFuture<Map<String, BeerDto>> getBeersByUpcsAsync(Collection<String> upcs);
+
+    /**
+     * One page of the beer catalog, uncached.
+     */
+    BeerPagedList listBeers(int pageNumber, int pageSize);
 }
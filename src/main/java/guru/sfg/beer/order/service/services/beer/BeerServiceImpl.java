@@ -1,39 +1,171 @@
 package guru.sfg.beer.order.service.services.beer;
 
+import guru.sfg.beer.order.service.config.BeerClientConfig;
 import guru.sfg.brewery.model.BeerDto;
+import guru.sfg.brewery.model.BeerPagedList;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.http.client.ClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
 
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
+/**
+ * Beer lookups are cached by id and by UPC; see {@link LookupCache} for the {@code sfg.brewery.beer-cache} settings.
+ * A beer the beer service doesn't know (404) is returned as empty.
+ * <p>
+ * Calls go to the instances listed in {@code sfg.brewery.beer-service-hosts}, else to those registered for
+ * {@code sfg.brewery.beer-service-id} in service discovery, else to {@code sfg.brewery.beer-service-host}, chosen per
+ * call by {@link BeerServiceInstances}. Slow calls can be hedged; see {@link HedgedRequests} for the
+ * {@code sfg.brewery.beer-hedging} settings.
+ */
 @Slf4j
-@ConfigurationProperties(prefix = "sfg.brewery", ignoreUnknownFields = false)
+@ConfigurationProperties(prefix = "sfg.brewery")
 @Service
 public class BeerServiceImpl implements BeerService {
 
     public static final String BEER_PATH_V1 = "/api/v1/beer/";
     public static final String BEER_UPC_PATH_V1 = "/api/v1/beerUpc/";
+    public static final String BEER_UPCS_PATH_V1 = "/api/v1/beerUpcs";
+    public static final String BEER_LIST_PATH_V1 = "/api/v1/beer?pageNumber={pageNumber}&pageSize={pageSize}";
     private final RestTemplate restTemplate;
+    private final TaskExecutor taskExecutor;
+    private final TaskExecutor beerClientExecutor;
+    private final TaskExecutor beerRequestExecutor;
+    private final ObjectProvider<DiscoveryClient> discoveryClient;
+    private final MeterRegistry meterRegistry;
+
+    private LookupCache<UUID, BeerDto>   beersById;
+    private LookupCache<String, BeerDto> beersByUpc;
+    private HedgedRequests               requests;
 
     @Setter
     private String beerServiceHost;
 
-    public BeerServiceImpl(RestTemplateBuilder restTemplateBuilder) {
-        this.restTemplate = restTemplateBuilder.build();
+    @Setter
+    private List<String> beerServiceHosts = new ArrayList<>();
+
+    @Setter
+    private String beerServiceId = "beer-service";
+
+    @Getter
+    private final HedgedRequests.Settings beerHedging = new HedgedRequests.Settings();
+
+    @Getter
+    private final LookupCache.Settings beerCache = new LookupCache.Settings();
+
+    public BeerServiceImpl(RestTemplateBuilder restTemplateBuilder,
+                           @Qualifier(BeerClientConfig.BEER_CLIENT_REQUEST_FACTORY)
+                                   ClientHttpRequestFactory requestFactory,
+                           TaskExecutor taskExecutor,
+                           @Qualifier(BeerClientConfig.BEER_CLIENT_EXECUTOR) TaskExecutor beerClientExecutor,
+                           @Qualifier(BeerClientConfig.BEER_REQUEST_EXECUTOR) TaskExecutor beerRequestExecutor,
+                           ObjectProvider<DiscoveryClient> discoveryClient,
+                           MeterRegistry meterRegistry) {
+        this.restTemplate = restTemplateBuilder
+                .requestFactory(() -> requestFactory)
+                .additionalInterceptors(BeerClientConfig.requestTimer(meterRegistry))
+                .build();
+        this.taskExecutor = taskExecutor;
+        this.beerClientExecutor = beerClientExecutor;
+        this.beerRequestExecutor = beerRequestExecutor;
+        this.discoveryClient = discoveryClient;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        requests = new HedgedRequests(new BeerServiceInstances(this::instances, beerServiceHost), beerRequestExecutor,
+                                      beerHedging, meterRegistry);
+        beersById = new LookupCache<>("beer-by-id", beerId -> fetch(BEER_PATH_V1 + beerId),
+                                      taskExecutor, beerCache, meterRegistry);
+        beersByUpc = new LookupCache<>("beer-by-upc", upc -> fetch(BEER_UPC_PATH_V1 + upc),
+                                       taskExecutor, beerCache, meterRegistry);
     }
 
     @Override
     public Optional<BeerDto> getBeerById(UUID beerId) {
-        return Optional.of(restTemplate.getForObject(beerServiceHost + BEER_PATH_V1 + beerId, BeerDto.class));
+        return beersById.get(beerId);
     }
 
     @Override
     public Optional<BeerDto> getBeerByUpc(String upc) {
-        return Optional.of(restTemplate.getForObject(beerServiceHost + BEER_UPC_PATH_V1 + upc, BeerDto.class));
+        return beersByUpc.get(upc);
+    }
+
+    @Override
+    public Map<String, BeerDto> getBeersByUpcs(Collection<String> upcs) {
+        return beersByUpc.getAll(upcs, this::fetchByUpcs);
+    }
+
+    @Override
+    public CompletableFuture<Optional<BeerDto>> getBeerByUpcAsync(String upc) {
+        return CompletableFuture.supplyAsync(() -> getBeerByUpc(upc), beerClientExecutor);
+    }
+
+    @Override
+    public CompletableFuture<Map<String, BeerDto>> getBeersByUpcsAsync(Collection<String> upcs) {
+        return CompletableFuture.supplyAsync(() -> getBeersByUpcs(upcs), beerClientExecutor);
+    }
+
+    @Override
+    public BeerPagedList listBeers(int pageNumber, int pageSize) {
+        return requests.execute(host -> restTemplate.getForObject(host + BEER_LIST_PATH_V1, BeerPagedList.class,
+                                                                  pageNumber, pageSize));
+    }
+
+    private List<String> instances() {
+        if (!beerServiceHosts.isEmpty()) {
+            return beerServiceHosts;
+        }
+        DiscoveryClient discovery = discoveryClient.getIfAvailable();
+        if (discovery == null) {
+            return List.of();
+        }
+        return discovery.getInstances(beerServiceId).stream()
+                .map(instance -> instance.getUri().toString())
+                .collect(Collectors.toList());
+    }
+
+    private Map<String, BeerDto> fetchByUpcs(Set<String> upcs) {
+        BeerDto[] beers = requests.execute(host -> restTemplate.getForObject(
+                UriComponentsBuilder.fromHttpUrl(host + BEER_UPCS_PATH_V1)
+                        .queryParam("upc", upcs.toArray())
+                        .toUriString(),
+                BeerDto[].class));
+        return beers == null ? Map.of() : Arrays.stream(beers)
+                .collect(Collectors.toMap(BeerDto::getUpc, Function.identity(), (first, second) -> first));
+    }
+
+    private Optional<BeerDto> fetch(String path) {
+        return requests.execute(host -> {
+            try {
+                return Optional.ofNullable(restTemplate.getForObject(host + path, BeerDto.class));
+            } catch (HttpClientErrorException.NotFound e) {
+                return Optional.empty();
+            }
+        });
     }
 }
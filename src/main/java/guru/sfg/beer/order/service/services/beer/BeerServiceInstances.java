@@ -0,0 +1,109 @@
+package guru.sfg.beer.order.service.services.beer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Picks a beer service instance by power of two choices: of two instances drawn at random, the one with the lower
+ * observed latency, weighted by the calls it already has in flight. Observed latency is a moving average that decays
+ * towards zero while an instance isn't used, so a slow instance is tried again once it has been left alone for a
+ * while. If there are no instances at all, the fallback host is used.
+ */
+public class BeerServiceInstances {
+
+    private static final double ALPHA = 0.3;
+    private static final long   DECAY = TimeUnit.SECONDS.toNanos(10);
+
+    private final Supplier<List<String>> hosts;
+    private final String                 fallbackHost;
+    private final Map<String, Stats>     stats = new ConcurrentHashMap<>();
+
+    public BeerServiceInstances(Supplier<List<String>> hosts, String fallbackHost) {
+        this.hosts = hosts;
+        this.fallbackHost = fallbackHost;
+    }
+
+    /**
+     * @param excluded an instance to avoid if there's any other, e.g. the one a hedged request is already waiting on.
+     */
+    public String choose(String excluded) {
+        List<String> candidates = hosts.get();
+        if (candidates.isEmpty()) {
+            return fallbackHost;
+        }
+        if (excluded != null && candidates.contains(excluded)) {
+            candidates = candidates.stream().filter(host -> !host.equals(excluded)).collect(Collectors.toList());
+            if (candidates.isEmpty()) {
+                return excluded;
+            }
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int firstIndex = random.nextInt(candidates.size());
+        int secondIndex = random.nextInt(candidates.size() - 1);
+        String first = candidates.get(firstIndex);
+        String second = candidates.get(secondIndex < firstIndex ? secondIndex : secondIndex + 1);
+
+        long now = System.nanoTime();
+        return stats(first).score(now) <= stats(second).score(now) ? first : second;
+    }
+
+    public void started(String host) {
+        stats(host).inFlight.incrementAndGet();
+    }
+
+    public void finished(String host, long latencyNanos) {
+        Stats instance = stats(host);
+        instance.inFlight.decrementAndGet();
+        instance.record(latencyNanos);
+    }
+
+    /**
+     * Count a call still running after {@code elapsedNanos} as having taken at least that long, so an instance that
+     * hasn't answered yet isn't taken for a fast one.
+     */
+    public void stillRunning(String host, long elapsedNanos) {
+        stats(host).atLeast(elapsedNanos);
+    }
+
+    private Stats stats(String host) {
+        return stats.computeIfAbsent(host, h -> new Stats());
+    }
+
+    private static class Stats {
+        final AtomicInteger inFlight = new AtomicInteger();
+        double              averageNanos;
+        long                updatedAt;
+
+        synchronized void record(long latencyNanos) {
+            long now = System.nanoTime();
+            averageNanos = updatedAt == 0
+                           ? latencyNanos
+                           : ALPHA * latencyNanos + (1 - ALPHA) * decayed(now);
+            updatedAt = now;
+        }
+
+        synchronized void atLeast(long latencyNanos) {
+            long now = System.nanoTime();
+            averageNanos = Math.max(decayed(now), latencyNanos);
+            updatedAt = now;
+        }
+
+        synchronized double score(long now) {
+            return decayed(now) * (inFlight.get() + 1);
+        }
+
+        private double decayed(long now) {
+            return updatedAt == 0 ? 0 : averageNanos * Math.exp(-(double) (now - updatedAt) / DECAY);
+        }
+    }
+}
@@ -3,20 +3,43 @@ package guru.sfg.beer.order.service.services.beer;
 import guru.sfg.beer.order.service.config.JmsConfig;
 import guru.sfg.beer.order.service.services.BeerOrderManager;
 import guru.sfg.brewery.model.events.AllocateOrderResponse;
+import guru.sfg.brewery.model.events.DeallocateOrdersResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.jms.annotation.JmsListener;
 import org.springframework.stereotype.Service;
 
+import javax.jms.JMSException;
+import javax.jms.Session;
+
+@ConditionalOnProperty(value = ResponseBatchConsumer.ENABLED_PROPERTY, havingValue = "false", matchIfMissing = true)
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class DeallocationResponseListener {
     private final BeerOrderManager beerOrderManager;
+    private final BatchedResponses batchedResponses;
 
-    @JmsListener(destination = JmsConfig.DEALLOCATE_ORDER_RESPONSE_QUEUE)
+    @JmsListener(destination = JmsConfig.DEALLOCATE_ORDER_RESPONSE_QUEUE,
+                 containerFactory = JmsConfig.DEALLOCATE_RESPONSE_CONTAINER_FACTORY)
     public void listen(AllocateOrderResponse event) {
         log.debug("Received DeallocateOrderResponse: " + event);
         beerOrderManager.processDeallocateOrderResponse(event.getBeerOrderDto());
     }
+
+    /**
+     * Responses that fail are requeued on their own, so the broker redelivers them without replaying the rest of the
+     * batch.
+     */
+    @JmsListener(destination = JmsConfig.DEALLOCATE_ORDER_RESPONSE_BATCH_QUEUE,
+                 containerFactory = JmsConfig.DEALLOCATE_RESPONSE_CONTAINER_FACTORY)
+    public void listen(DeallocateOrdersResponse batch, Session session) throws JMSException {
+        log.debug("Received " + batch.getResponses().size() + " DeallocateOrderResponses");
+        // The single-response queue carries deallocation responses as AllocateOrderResponses.
+        batchedResponses.apply(session, batch.getResponses(),
+                               response -> beerOrderManager.processDeallocateOrderResponse(response.getBeerOrderDto()),
+                               JmsConfig.DEALLOCATE_ORDER_RESPONSE_QUEUE,
+                               response -> new AllocateOrderResponse(response.getBeerOrderDto(), false, false));
+    }
 }
@@ -0,0 +1,151 @@
+package guru.sfg.beer.order.service.services.beer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Runs a beer service call against an instance from {@link BeerServiceInstances} and, when hedging is enabled and it
+ * hasn't answered within the {@code percentile} of recent latencies, sends the same call to another instance and
+ * takes whichever answers first. The hedge delay is kept between {@code min-delay} and {@code max-delay}; until there
+ * are enough samples it is {@code max-delay}.
+ * <p>
+ * Hedges are counted in {@code sfg.brewery.beer.client.hedges}, and hedges that answered first in
+ * {@code sfg.brewery.beer.client.hedge.wins}.
+ */
+public class HedgedRequests {
+
+    private final BeerServiceInstances instances;
+    private final Executor             executor;
+    private final Settings             settings;
+    private final Counter              hedges;
+    private final Counter              hedgeWins;
+
+    private final long[] latencies;
+    private       int    next;
+    private       int    filled;
+    private       int    sinceUpdate;
+    private volatile long hedgeDelayNanos;
+
+    public HedgedRequests(BeerServiceInstances instances,
+                          Executor executor,
+                          Settings settings,
+                          MeterRegistry meterRegistry) {
+        this.instances = instances;
+        this.executor = executor;
+        this.settings = settings;
+        this.latencies = new long[settings.getWindow()];
+        this.hedgeDelayNanos = settings.getMaxDelay().toNanos();
+
+        hedges = meterRegistry.counter("sfg.brewery.beer.client.hedges");
+        hedgeWins = meterRegistry.counter("sfg.brewery.beer.client.hedge.wins");
+    }
+
+    /**
+     * @param call the request, given the base URL of the instance to send it to.
+     */
+    public <T> T execute(Function<String, T> call) {
+        String primary = instances.choose(null);
+        if (!settings.isEnabled()) {
+            return attempt(primary, call);
+        }
+
+        CompletableFuture<T> winner = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(1);
+        launch(primary, call, winner, pending, false);
+        try {
+            return winner.get(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            pending.incrementAndGet();
+            hedges.increment();
+            instances.stillRunning(primary, hedgeDelayNanos);
+            launch(instances.choose(primary), call, winner, pending, true);
+        } catch (ExecutionException e) {
+            throw (RuntimeException) e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for the beer service", e);
+        }
+
+        try {
+            return winner.join();
+        } catch (CompletionException e) {
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    /**
+     * The first attempt to succeed completes {@code winner}; it fails only once every attempt has.
+     */
+    private <T> void launch(String host, Function<String, T> call, CompletableFuture<T> winner,
+                            AtomicInteger pending, boolean hedge) {
+        executor.execute(() -> {
+            try {
+                if (winner.complete(attempt(host, call)) && hedge) {
+                    hedgeWins.increment();
+                }
+            } catch (RuntimeException e) {
+                if (pending.decrementAndGet() == 0) {
+                    winner.completeExceptionally(e);
+                }
+            }
+        });
+    }
+
+    private <T> T attempt(String host, Function<String, T> call) {
+        long start = System.nanoTime();
+        instances.started(host);
+        boolean succeeded = false;
+        try {
+            T result = call.apply(host);
+            succeeded = true;
+            return result;
+        } finally {
+            long latency = System.nanoTime() - start;
+            instances.finished(host, latency);
+            if (succeeded) {
+                record(latency);
+            }
+        }
+    }
+
+    /**
+     * Keeps the last {@code window} latencies and recomputes the hedge delay every tenth of a window.
+     */
+    private synchronized void record(long latencyNanos) {
+        latencies[next] = latencyNanos;
+        next = (next + 1) % latencies.length;
+        filled = Math.min(filled + 1, latencies.length);
+        if (++sinceUpdate < Math.max(1, latencies.length / 10)) {
+            return;
+        }
+        sinceUpdate = 0;
+        long[] sorted = Arrays.copyOf(latencies, filled);
+        Arrays.sort(sorted);
+        long percentile = sorted[Math.min(sorted.length - 1, (int) (settings.getPercentile() * sorted.length))];
+        hedgeDelayNanos = Math.max(settings.getMinDelay().toNanos(),
+                                   Math.min(settings.getMaxDelay().toNanos(), percentile));
+    }
+
+    @Getter
+    @Setter
+    public static class Settings {
+        private boolean  enabled    = false;
+        private double   percentile = 0.95;
+        private Duration minDelay   = Duration.ofMillis(20);
+        private Duration maxDelay   = Duration.ofSeconds(1);
+        private int      window     = 200;
+    }
+}
@@ -0,0 +1,277 @@
+package guru.sfg.beer.order.service.services.beer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Bounded in-process cache in front of a remote lookup.
+ * <ul>
+ * <li>Concurrent misses for the same key share one load; callers wait for it rather than issuing their own.</li>
+ * <li>Found values live for {@code ttl}; not-found results are cached too, for the shorter {@code not-found-ttl}.</li>
+ * <li>A hit older than {@code refresh-after} is served as is while a reload runs in the background.</li>
+ * <li>Past {@code max-size}, expired entries and then the oldest loads are dropped, down to a tenth below it.</li>
+ * </ul>
+ * Hits and misses are counted in {@code sfg.brewery.lookup.cache.requests}, tagged with the cache name and result.
+ */
+@Slf4j
+public class LookupCache<K, V> {
+
+    private final Map<K, Entry<V>>         entries   = new ConcurrentHashMap<>();
+    /**
+     * Loads, oldest first. Records of entries since replaced or removed are skipped when eviction reaches them, and
+     * purged once there are twice {@code max-size} records.
+     */
+    private final Queue<Loaded<K, V>>      loadOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger            queued    = new AtomicInteger();
+    private final Function<K, Optional<V>> loader;
+    private final Executor                 refreshExecutor;
+    private final Settings                 settings;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    public LookupCache(String name,
+                       Function<K, Optional<V>> loader,
+                       Executor refreshExecutor,
+                       Settings settings,
+                       MeterRegistry meterRegistry) {
+        this.loader = loader;
+        this.refreshExecutor = refreshExecutor;
+        this.settings = settings;
+
+        hits = meterRegistry.counter("sfg.brewery.lookup.cache.requests", Tags.of("cache", name, "result", "hit"));
+        misses = meterRegistry.counter("sfg.brewery.lookup.cache.requests", Tags.of("cache", name, "result", "miss"));
+        evictions = meterRegistry.counter("sfg.brewery.lookup.cache.evictions", Tags.of("cache", name));
+        meterRegistry.gaugeMapSize("sfg.brewery.lookup.cache.size", Tags.of("cache", name), entries);
+    }
+
+    public Optional<V> get(K key) {
+        long now = System.nanoTime();
+        Entry<V> loading = new Entry<>();
+        Entry<V> entry = entries.compute(key, (k, current) -> current != null && !current.isExpired(now, settings)
+                                                             ? current
+                                                             : loading);
+        if (entry != loading) {
+            if (entry.isLoaded()) {
+                hits.increment();
+                if (entry.isDueForRefresh(now, settings)) {
+                    refresh(key, entry);
+                }
+            } else {
+                // Another caller is loading this key; wait for its result.
+                misses.increment();
+            }
+            return entry.join();
+        }
+
+        misses.increment();
+        try {
+            loading.complete(loader.apply(key));
+        } catch (RuntimeException e) {
+            entries.remove(key, loading);
+            loading.fail(e);
+            throw e;
+        }
+        loaded(key, loading);
+        if (entries.size() > settings.getMaxSize()) {
+            evict();
+        }
+        return loading.join();
+    }
+
+    /**
+     * Look up several keys at once, loading every key that isn't cached or already loading with a single call to
+     * {@code bulkLoader}. Keys the bulk loader leaves out are cached as not found.
+     *
+     * @return the found values; keys that weren't found are absent.
+     */
+    public Map<K, V> getAll(Collection<K> keys, Function<Set<K>, Map<K, V>> bulkLoader) {
+        long now = System.nanoTime();
+        Map<K, Entry<V>> found = new HashMap<>();
+        Map<K, Entry<V>> loading = new HashMap<>();
+        for (K key : new LinkedHashSet<>(keys)) {
+            Entry<V> mine = new Entry<>();
+            Entry<V> entry = entries.compute(key, (k, current) -> current != null && !current.isExpired(now, settings)
+                                                                 ? current
+                                                                 : mine);
+            if (entry == mine) {
+                misses.increment();
+                loading.put(key, mine);
+            } else {
+                if (entry.isLoaded()) {
+                    hits.increment();
+                    if (entry.isDueForRefresh(now, settings)) {
+                        refresh(key, entry);
+                    }
+                } else {
+                    misses.increment();
+                }
+                found.put(key, entry);
+            }
+        }
+
+        if (!loading.isEmpty()) {
+            Map<K, V> loaded;
+            try {
+                loaded = bulkLoader.apply(loading.keySet());
+            } catch (RuntimeException e) {
+                loading.forEach((key, entry) -> {
+                    entries.remove(key, entry);
+                    entry.fail(e);
+                });
+                throw e;
+            }
+            loading.forEach((key, entry) -> {
+                entry.complete(Optional.ofNullable(loaded.get(key)));
+                loaded(key, entry);
+            });
+            found.putAll(loading);
+            if (entries.size() > settings.getMaxSize()) {
+                evict();
+            }
+        }
+
+        Map<K, V> values = new HashMap<>();
+        found.forEach((key, entry) -> entry.join().ifPresent(value -> values.put(key, value)));
+        return values;
+    }
+
+    public void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    private void refresh(K key, Entry<V> stale) {
+        if (!stale.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    Entry<V> fresh = new Entry<>();
+                    fresh.complete(loader.apply(key));
+                    if (entries.replace(key, stale, fresh)) {
+                        loaded(key, fresh);
+                    }
+                } catch (RuntimeException e) {
+                    // Keep serving the old value until it expires; the next hit tries again.
+                    log.warn("Refresh of " + key + " failed", e);
+                    stale.refreshing.set(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            stale.refreshing.set(false);
+        }
+    }
+
+    private void loaded(K key, Entry<V> entry) {
+        loadOrder.add(new Loaded<>(key, entry));
+        if (queued.incrementAndGet() > 2 * settings.getMaxSize()) {
+            loadOrder.removeIf(record -> entries.get(record.key) != record.entry);
+            queued.set(loadOrder.size());
+        }
+    }
+
+    /**
+     * Trims a tenth below the bound in one go, so this runs once per tenth of {@code max-size} inserts rather than
+     * on every one.
+     */
+    private void evict() {
+        long now = System.nanoTime();
+        entries.entrySet().removeIf(e -> {
+            boolean expired = e.getValue().isExpired(now, settings);
+            if (expired) {
+                evictions.increment();
+            }
+            return expired;
+        });
+
+        int target = settings.getMaxSize() - Math.max(1, settings.getMaxSize() / 10);
+        Loaded<K, V> oldest;
+        while (entries.size() > target && (oldest = loadOrder.poll()) != null) {
+            queued.decrementAndGet();
+            if (entries.remove(oldest.key, oldest.entry)) {
+                evictions.increment();
+            }
+        }
+    }
+
+    @Getter
+    @Setter
+    public static class Settings {
+        private int      maxSize      = 10_000;
+        private Duration ttl          = Duration.ofMinutes(10);
+        private Duration refreshAfter = Duration.ofMinutes(5);
+        private Duration notFoundTtl  = Duration.ofSeconds(30);
+    }
+
+    private static class Loaded<K, V> {
+        final K        key;
+        final Entry<V> entry;
+
+        Loaded(K key, Entry<V> entry) {
+            this.key = key;
+            this.entry = entry;
+        }
+    }
+
+    private static class Entry<V> {
+        final CompletableFuture<Optional<V>> value      = new CompletableFuture<>();
+        final AtomicBoolean                  refreshing = new AtomicBoolean();
+        volatile long                        loadedAt;
+
+        void complete(Optional<V> loaded) {
+            loadedAt = System.nanoTime();
+            value.complete(loaded);
+        }
+
+        void fail(RuntimeException e) {
+            value.completeExceptionally(e);
+        }
+
+        boolean isLoaded() {
+            return value.isDone() && !value.isCompletedExceptionally();
+        }
+
+        boolean isExpired(long now, Settings settings) {
+            if (!isLoaded()) {
+                return value.isDone();
+            }
+            Duration ttl = value.join().isPresent() ? settings.getTtl() : settings.getNotFoundTtl();
+            return now - loadedAt >= ttl.toNanos();
+        }
+
+        boolean isDueForRefresh(long now, Settings settings) {
+            return value.join().isPresent() && now - loadedAt >= settings.getRefreshAfter().toNanos();
+        }
+
+        Optional<V> join() {
+            try {
+                return value.join();
+            } catch (CompletionException e) {
+                throw (RuntimeException) e.getCause();
+            }
+        }
+    }
+}
@@ -3,20 +3,40 @@ package guru.sfg.beer.order.service.services.beer;
 import guru.sfg.beer.order.service.config.JmsConfig;
 import guru.sfg.beer.order.service.services.BeerOrderManager;
 import guru.sfg.brewery.model.events.ValidateOrderResponse;
+import guru.sfg.brewery.model.events.ValidateOrdersResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.jms.annotation.JmsListener;
 import org.springframework.stereotype.Service;
 
+import javax.jms.JMSException;
+import javax.jms.Session;
+
+@ConditionalOnProperty(value = ResponseBatchConsumer.ENABLED_PROPERTY, havingValue = "false", matchIfMissing = true)
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class OrderValidationResponseListener {
     private final BeerOrderManager beerOrderManager;
+    private final BatchedResponses batchedResponses;
 
-    @JmsListener(destination = JmsConfig.VALIDATE_ORDER_RESPONSE_QUEUE)
+    @JmsListener(destination = JmsConfig.VALIDATE_ORDER_RESPONSE_QUEUE,
+                 containerFactory = JmsConfig.VALIDATE_RESPONSE_CONTAINER_FACTORY)
     public void listen(ValidateOrderResponse event) {
         log.debug("Received order validation response: " + event.getOrderId());
         beerOrderManager.processValidationResult(event.getOrderId(), event.isValid());
     }
+
+    /**
+     * Responses that fail are requeued on their own, so the broker redelivers them without replaying the rest of the
+     * batch.
+     */
+    @JmsListener(destination = JmsConfig.VALIDATE_ORDER_RESPONSE_BATCH_QUEUE,
+                 containerFactory = JmsConfig.VALIDATE_RESPONSE_CONTAINER_FACTORY)
+    public void listen(ValidateOrdersResponse batch, Session session) throws JMSException {
+        log.debug("Received " + batch.getResponses().size() + " order validation responses");
+        batchedResponses.apply(session, batch.getResponses(), this::listen, JmsConfig.VALIDATE_ORDER_RESPONSE_QUEUE,
+                               response -> response);
+    }
 }
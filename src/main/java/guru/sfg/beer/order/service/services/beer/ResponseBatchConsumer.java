@@ -0,0 +1,315 @@
+package guru.sfg.beer.order.service.services.beer;
+
+import guru.sfg.beer.order.service.config.JmsConfig;
+import guru.sfg.beer.order.service.services.BeerOrderManager;
+import guru.sfg.brewery.model.events.AllocateOrderResponse;
+import guru.sfg.brewery.model.events.AllocateOrdersResponse;
+import guru.sfg.brewery.model.events.DeallocateOrderResponse;
+import guru.sfg.brewery.model.events.DeallocateOrdersResponse;
+import guru.sfg.brewery.model.events.ValidateOrderResponse;
+import guru.sfg.brewery.model.events.ValidateOrdersResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Setter;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.support.converter.MessageConverter;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import javax.annotation.PreDestroy;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Replaces the per-message response listeners when {@code sfg.brewery.response-batch.enabled} is set. Each response
+ * queue gets a thread that drains up to {@code max-messages} messages into one transacted JMS session, applies them
+ * all in a single database transaction and then commits the session, acknowledging the batch together.
+ * <p>
+ * If the batch fails, its responses are applied one at a time as the listeners would. A response that fails on its
+ * own with a transient error, such as a lock timeout, a deadlock or no database connection, rolls the session back
+ * so the broker redelivers its messages, until its message has been delivered {@code max-attempts} times. A message
+ * that can't be read, or a response that fails otherwise or has run out of attempts, is moved to the queue's
+ * {@link JmsConfig#DEAD_LETTER_SUFFIX} queue.
+ * <p>
+ * Batches are applied on these threads, not on the orders' event stripes, so they don't queue behind an order's
+ * other events. Per-order ordering rests on the status compare-and-set instead: the batch writer locks its orders
+ * and checks their status and version before writing, so a batch that races an order's other events, or holds a
+ * response the order isn't ready for, rolls back and its responses are applied one at a time on the stripes.
+ */
+@Slf4j
+@ConditionalOnProperty(value = ResponseBatchConsumer.ENABLED_PROPERTY, havingValue = "true")
+@ConfigurationProperties(prefix = "sfg.brewery.response-batch")
+@Component
+public class ResponseBatchConsumer {
+
+    public static final String ENABLED_PROPERTY = "sfg.brewery.response-batch.enabled";
+
+    private static final String DELIVERY_COUNT_PROPERTY = "JMSXDeliveryCount";
+
+    private final JmsTemplate      jmsTemplate;
+    private final MessageConverter messageConverter;
+    private final List<Lane<?>>    lanes;
+
+    private final DistributionSummary batchSizes;
+    private final Counter             fallbacks;
+    private final Counter             deadLettered;
+    private final Counter             redelivered;
+
+    private ExecutorService  executor;
+    private volatile boolean running;
+
+    @Setter
+    private int maxMessages = 100;
+
+    @Setter
+    private Duration receiveTimeout = Duration.ofSeconds(1);
+
+    /**
+     * Deliveries of a message before a response in it that keeps failing transiently is dead-lettered. Keep this
+     * below the broker's own max delivery attempts.
+     */
+    @Setter
+    private int maxAttempts = 5;
+
+    public ResponseBatchConsumer(BeerOrderManager beerOrderManager,
+                                 ConnectionFactory connectionFactory,
+                                 MessageConverter messageConverter,
+                                 MeterRegistry meterRegistry) {
+        this.jmsTemplate = new JmsTemplate(connectionFactory);
+        this.jmsTemplate.setSessionTransacted(true);
+        this.messageConverter = messageConverter;
+
+        this.lanes = List.of(
+                new Lane<>(JmsConfig.VALIDATE_ORDER_RESPONSE_QUEUE,
+                           payload -> List.of((ValidateOrderResponse) payload),
+                           beerOrderManager::processValidationResults,
+                           response -> beerOrderManager.processValidationResult(response.getOrderId(),
+                                                                                response.isValid())),
+                new Lane<>(JmsConfig.VALIDATE_ORDER_RESPONSE_BATCH_QUEUE,
+                           payload -> ((ValidateOrdersResponse) payload).getResponses(),
+                           beerOrderManager::processValidationResults,
+                           response -> beerOrderManager.processValidationResult(response.getOrderId(),
+                                                                                response.isValid())),
+                new Lane<>(JmsConfig.ALLOCATE_ORDER_RESPONSE_QUEUE,
+                           payload -> List.of((AllocateOrderResponse) payload),
+                           beerOrderManager::processAllocateOrderResponses,
+                           response -> beerOrderManager.processAllocateOrderResponse(response.getBeerOrderDto(),
+                                                                                     response.getAllocationError(),
+                                                                                     response.getPendingInventory())),
+                new Lane<>(JmsConfig.ALLOCATE_ORDER_RESPONSE_BATCH_QUEUE,
+                           payload -> ((AllocateOrdersResponse) payload).getResponses(),
+                           beerOrderManager::processAllocateOrderResponses,
+                           response -> beerOrderManager.processAllocateOrderResponse(response.getBeerOrderDto(),
+                                                                                     response.getAllocationError(),
+                                                                                     response.getPendingInventory())),
+                new Lane<>(JmsConfig.DEALLOCATE_ORDER_RESPONSE_QUEUE,
+                           payload -> List.of((AllocateOrderResponse) payload),
+                           responses -> beerOrderManager.processDeallocateOrderResponses(
+                                   responses.stream()
+                                           .map(AllocateOrderResponse::getBeerOrderDto)
+                                           .collect(Collectors.toList())),
+                           response -> beerOrderManager.processDeallocateOrderResponse(response.getBeerOrderDto())),
+                new Lane<>(JmsConfig.DEALLOCATE_ORDER_RESPONSE_BATCH_QUEUE,
+                           payload -> ((DeallocateOrdersResponse) payload).getResponses(),
+                           responses -> beerOrderManager.processDeallocateOrderResponses(
+                                   responses.stream()
+                                           .map(DeallocateOrderResponse::getBeerOrderDto)
+                                           .collect(Collectors.toList())),
+                           response -> beerOrderManager.processDeallocateOrderResponse(response.getBeerOrderDto())));
+
+        batchSizes = meterRegistry.summary("sfg.brewery.response.batch.size");
+        fallbacks = meterRegistry.counter("sfg.brewery.response.batch.fallbacks");
+        deadLettered = meterRegistry.counter("sfg.brewery.response.batch.dead.lettered");
+        redelivered = meterRegistry.counter("sfg.brewery.response.batch.redelivered");
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        running = true;
+        executor = Executors.newFixedThreadPool(lanes.size(), r -> {
+            Thread thread = new Thread(r, "response-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        lanes.forEach(lane -> executor.execute(() -> consume(lane)));
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(receiveTimeout.toMillis() * 2, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private <T> void consume(Lane<T> lane) {
+        Thread.currentThread().setName("response-batch-" + lane.getQueue());
+        while (running) {
+            try {
+                // One long-lived session per lane; it is only recreated after a broker failure.
+                jmsTemplate.execute(session -> {
+                    MessageConsumer consumer = session.createConsumer(resolve(session, lane.getQueue()));
+                    try {
+                        while (running) {
+                            consumeBatch(session, consumer, lane);
+                        }
+                    } finally {
+                        consumer.close();
+                    }
+                    return null;
+                }, true);
+            } catch (RuntimeException e) {
+                if (running) {
+                    log.error("Response consumer for " + lane.getQueue() + " failed, reconnecting", e);
+                    pause();
+                }
+            }
+        }
+    }
+
+    private <T> void consumeBatch(Session session, MessageConsumer consumer, Lane<T> lane) throws JMSException {
+        List<Message> messages = new ArrayList<>();
+        Message message = consumer.receive(receiveTimeout.toMillis());
+        while (message != null) {
+            messages.add(message);
+            message = messages.size() < maxMessages ? consumer.receiveNoWait() : null;
+        }
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        // Each response alongside the message it came in, whose delivery count bounds its retries.
+        List<T> all = new ArrayList<>();
+        List<Message> sources = new ArrayList<>();
+        int deadLetters = 0;
+        for (Message received : messages) {
+            try {
+                for (T response : lane.getResponses().apply(messageConverter.fromMessage(received))) {
+                    all.add(response);
+                    sources.add(received);
+                }
+            } catch (RuntimeException | JMSException e) {
+                log.error("Unreadable message on " + lane.getQueue(), e);
+                deadLetter(session, lane, received);
+                deadLetters++;
+            }
+        }
+
+        try {
+            if (!all.isEmpty()) {
+                lane.getBatch().accept(all);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Batch of " + all.size() + " responses on " + lane.getQueue()
+                     + " failed, applying them one at a time", e);
+            fallbacks.increment();
+            boolean redeliver = false;
+            for (int i = 0; i < all.size(); i++) {
+                T response = all.get(i);
+                try {
+                    lane.getSingle().accept(response);
+                } catch (RuntimeException single) {
+                    if (isTransient(single) && deliveryCount(sources.get(i)) < maxAttempts) {
+                        log.warn("Response on " + lane.getQueue() + " failed, rolling back for redelivery: "
+                                 + response, single);
+                        redeliver = true;
+                    } else {
+                        log.error("Response on " + lane.getQueue() + " failed: " + response, single);
+                        deadLetter(session, lane, messageConverter.toMessage(response, session));
+                        deadLetters++;
+                    }
+                }
+            }
+            if (redeliver) {
+                // Responses already applied are dropped as stale when they come round again.
+                session.rollback();
+                redelivered.increment();
+                return;
+            }
+        }
+
+        deadLettered.increment(deadLetters);
+        session.commit();
+        batchSizes.record(all.size());
+    }
+
+    private void deadLetter(Session session, Lane<?> lane, Message message) throws JMSException {
+        MessageProducer producer = session.createProducer(
+                resolve(session, lane.getQueue() + JmsConfig.DEAD_LETTER_SUFFIX));
+        try {
+            producer.send(message);
+        } finally {
+            producer.close();
+        }
+    }
+
+    private static int deliveryCount(Message message) throws JMSException {
+        return message.propertyExists(DELIVERY_COUNT_PROPERTY) ? message.getIntProperty(DELIVERY_COUNT_PROPERTY) : 1;
+    }
+
+    /**
+     * Whether a failure is likely to pass on a later attempt, rather than being down to the response itself.
+     */
+    private static boolean isTransient(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TransientDataAccessException
+                || cause instanceof RecoverableDataAccessException
+                || cause instanceof CannotCreateTransactionException
+                || cause instanceof SQLTransientException
+                || cause instanceof SQLRecoverableException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Destination resolve(Session session, String queue) throws JMSException {
+        return jmsTemplate.getDestinationResolver().resolveDestinationName(session, queue, false);
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(receiveTimeout.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    /**
+     * One response queue: how to unpack its payload, and how to apply responses in a batch or singly.
+     */
+    @Value
+    private static class Lane<T> {
+        String                    queue;
+        Function<Object, List<T>> responses;
+        Consumer<List<T>>         batch;
+        Consumer<T>               single;
+    }
+}
@@ -0,0 +1,395 @@
+package guru.sfg.beer.order.service.services.codec;
+
+import guru.sfg.brewery.model.BeerOrderDto;
+import guru.sfg.brewery.model.BeerOrderLineDto;
+import guru.sfg.brewery.model.events.AllocateOrderRequest;
+import guru.sfg.brewery.model.events.AllocateOrderResponse;
+import guru.sfg.brewery.model.events.AllocateOrdersRequest;
+import guru.sfg.brewery.model.events.AllocateOrdersResponse;
+import guru.sfg.brewery.model.events.AllocationFailureEvent;
+import guru.sfg.brewery.model.events.DeallocateOrderRequest;
+import guru.sfg.brewery.model.events.DeallocateOrderResponse;
+import guru.sfg.brewery.model.events.DeallocateOrdersRequest;
+import guru.sfg.brewery.model.events.DeallocateOrdersResponse;
+import guru.sfg.brewery.model.events.ValidateOrderRequest;
+import guru.sfg.brewery.model.events.ValidateOrderResponse;
+import guru.sfg.brewery.model.events.ValidateOrdersRequest;
+import guru.sfg.brewery.model.events.ValidateOrdersResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Compact binary form of the saga events. A message is a format version byte, a type tag and then the event's fields
+ * in a fixed order, with a presence flag ahead of every nullable field. Only the classes registered here can be
+ * written; {@link #supports(Class)} says which.
+ * <p>
+ * Tags and field order are part of the wire format: add new types with new tags, and bump {@link #VERSION} for any
+ * other change.
+ */
+public final class BinaryEventCodec {
+
+    public static final byte VERSION = 1;
+
+    private static final Map<Class<?>, Type<?>>  BY_CLASS = new HashMap<>();
+    private static final Map<Byte, Type<?>>      BY_TAG   = new HashMap<>();
+    private static final Map<Class<?>, Class<?>> ITEMS    = new HashMap<>();
+
+    static {
+        register(1, ValidateOrderRequest.class,
+                 (out, e) -> writeOrder(out, e.getBeerOrderDto()),
+                 in -> new ValidateOrderRequest(readOrder(in)));
+        register(2, ValidateOrderResponse.class,
+                 (out, e) -> {
+                     writeUuid(out, e.getOrderId());
+                     out.writeBoolean(e.isValid());
+                 },
+                 in -> new ValidateOrderResponse(readUuid(in), in.readBoolean()));
+        register(3, AllocateOrderRequest.class,
+                 (out, e) -> writeOrder(out, e.getBeerOrderDto()),
+                 in -> new AllocateOrderRequest(readOrder(in)));
+        register(4, AllocateOrderResponse.class,
+                 (out, e) -> {
+                     writeOrder(out, e.getBeerOrderDto());
+                     writeBoolean(out, e.getAllocationError());
+                     writeBoolean(out, e.getPendingInventory());
+                 },
+                 in -> new AllocateOrderResponse(readOrder(in), readBoolean(in), readBoolean(in)));
+        register(5, AllocationFailureEvent.class,
+                 (out, e) -> writeUuid(out, e.getOrderId()),
+                 in -> new AllocationFailureEvent(readUuid(in)));
+        register(6, DeallocateOrderRequest.class,
+                 (out, e) -> writeOrder(out, e.getBeerOrderDto()),
+                 in -> new DeallocateOrderRequest(readOrder(in)));
+        register(7, DeallocateOrderResponse.class,
+                 (out, e) -> writeOrder(out, e.getBeerOrderDto()),
+                 in -> new DeallocateOrderResponse(readOrder(in)));
+
+        registerBatch(8, ValidateOrdersRequest.class, ValidateOrderRequest.class,
+                      ValidateOrdersRequest::getRequests, ValidateOrdersRequest::new);
+        registerBatch(9, ValidateOrdersResponse.class, ValidateOrderResponse.class,
+                      ValidateOrdersResponse::getResponses, ValidateOrdersResponse::new);
+        registerBatch(10, AllocateOrdersRequest.class, AllocateOrderRequest.class,
+                      AllocateOrdersRequest::getRequests, AllocateOrdersRequest::new);
+        registerBatch(11, AllocateOrdersResponse.class, AllocateOrderResponse.class,
+                      AllocateOrdersResponse::getResponses, AllocateOrdersResponse::new);
+        registerBatch(12, DeallocateOrdersRequest.class, DeallocateOrderRequest.class,
+                      DeallocateOrdersRequest::getRequests, DeallocateOrdersRequest::new);
+        registerBatch(13, DeallocateOrdersResponse.class, DeallocateOrderResponse.class,
+                      DeallocateOrdersResponse::getResponses, DeallocateOrdersResponse::new);
+    }
+
+    private BinaryEventCodec() {
+    }
+
+    public static boolean supports(Class<?> eventClass) {
+        return BY_CLASS.containsKey(eventClass);
+    }
+
+    public static byte[] encode(Object event) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            Type<Object> type = typeOf(event.getClass());
+            out.writeByte(VERSION);
+            out.writeByte(type.tag);
+            type.writer.write(out, event);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Build a batch event from its items, already encoded one by one, without decoding them: each item's fields are
+     * copied as they are after its version and type tag.
+     */
+    public static byte[] combine(Class<?> batchClass, List<byte[]> encodedItems) {
+        Class<?> itemClass = ITEMS.get(batchClass);
+        if (itemClass == null) {
+            throw new IllegalArgumentException("Not a batch event: " + batchClass.getName());
+        }
+        byte itemTag = typeOf(itemClass).tag;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                6 + encodedItems.stream().mapToInt(item -> item.length - 2).sum());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeByte(typeOf(batchClass).tag);
+            out.writeInt(encodedItems.size());
+            for (byte[] item : encodedItems) {
+                if (item.length < 2 || item[0] != VERSION || item[1] != itemTag) {
+                    throw new IllegalArgumentException("Not a version " + VERSION + " " + itemClass.getName());
+                }
+                out.write(item, 2, item.length - 2);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static Object decode(byte[] body) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+            byte version = in.readByte();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported event format version " + version);
+            }
+            byte tag = in.readByte();
+            Type<?> type = BY_TAG.get(tag);
+            if (type == null) {
+                throw new IllegalArgumentException("Unknown event type tag " + tag);
+            }
+            return type.reader.read(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Type<T> typeOf(Class<?> eventClass) {
+        Type<T> type = (Type<T>) BY_CLASS.get(eventClass);
+        if (type == null) {
+            throw new IllegalArgumentException("No binary form for " + eventClass.getName());
+        }
+        return type;
+    }
+
+    private static <T> void register(int tag, Class<T> eventClass, Writer<T> writer, Reader<T> reader) {
+        Type<T> type = new Type<>((byte) tag, writer, reader);
+        BY_CLASS.put(eventClass, type);
+        BY_TAG.put(type.tag, type);
+    }
+
+    /**
+     * A batch is its items' list, written as {@link #combine} expects.
+     */
+    private static <B, I> void registerBatch(int tag, Class<B> batchClass, Class<I> itemClass,
+                                             Function<B, List<I>> items, Function<List<I>, B> batch) {
+        register(tag, batchClass,
+                 (out, e) -> writeList(out, items.apply(e), itemClass),
+                 in -> batch.apply(readList(in, itemClass)));
+        ITEMS.put(batchClass, itemClass);
+    }
+
+    private static <T> void writeList(DataOutput out, List<T> items, Class<T> itemClass) throws IOException {
+        if (items == null) {
+            out.writeInt(-1);
+            return;
+        }
+        Type<T> type = typeOf(itemClass);
+        out.writeInt(items.size());
+        for (T item : items) {
+            type.writer.write(out, item);
+        }
+    }
+
+    private static <T> List<T> readList(DataInput in, Class<T> itemClass) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        Type<T> type = typeOf(itemClass);
+        List<T> items = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            items.add(type.reader.read(in));
+        }
+        return items;
+    }
+
+    private static void writeOrder(DataOutput out, BeerOrderDto order) throws IOException {
+        out.writeBoolean(order != null);
+        if (order == null) {
+            return;
+        }
+        writeUuid(out, order.getId());
+        writeInteger(out, order.getVersion());
+        writeDateTime(out, order.getCreatedDate());
+        writeDateTime(out, order.getLastModifiedDate());
+        writeUuid(out, order.getCustomerId());
+        writeString(out, order.getCustomerRef());
+        writeString(out, order.getOrderStatus());
+        writeString(out, order.getOrderStatusCallbackUrl());
+
+        List<BeerOrderLineDto> lines = order.getBeerOrderLines();
+        out.writeInt(lines == null ? -1 : lines.size());
+        if (lines != null) {
+            for (BeerOrderLineDto line : lines) {
+                writeLine(out, line);
+            }
+        }
+    }
+
+    private static BeerOrderDto readOrder(DataInput in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        BeerOrderDto order = new BeerOrderDto();
+        order.setId(readUuid(in));
+        order.setVersion(readInteger(in));
+        order.setCreatedDate(readDateTime(in));
+        order.setLastModifiedDate(readDateTime(in));
+        order.setCustomerId(readUuid(in));
+        order.setCustomerRef(readString(in));
+        order.setOrderStatus(readString(in));
+        order.setOrderStatusCallbackUrl(readString(in));
+
+        int size = in.readInt();
+        if (size >= 0) {
+            List<BeerOrderLineDto> lines = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                lines.add(readLine(in));
+            }
+            order.setBeerOrderLines(lines);
+        }
+        return order;
+    }
+
+    private static void writeLine(DataOutput out, BeerOrderLineDto line) throws IOException {
+        writeUuid(out, line.getId());
+        writeInteger(out, line.getVersion());
+        writeDateTime(out, line.getCreatedDate());
+        writeDateTime(out, line.getLastModifiedDate());
+        writeString(out, line.getUpc());
+        writeString(out, line.getBeerName());
+        writeString(out, line.getBeerStyle());
+        writeDecimal(out, line.getBeerPrice());
+        writeUuid(out, line.getBeerId());
+        writeInteger(out, line.getOrderQuantity());
+        writeInteger(out, line.getQuantityAllocated());
+    }
+
+    private static BeerOrderLineDto readLine(DataInput in) throws IOException {
+        BeerOrderLineDto line = new BeerOrderLineDto();
+        line.setId(readUuid(in));
+        line.setVersion(readInteger(in));
+        line.setCreatedDate(readDateTime(in));
+        line.setLastModifiedDate(readDateTime(in));
+        line.setUpc(readString(in));
+        line.setBeerName(readString(in));
+        line.setBeerStyle(readString(in));
+        line.setBeerPrice(readDecimal(in));
+        line.setBeerId(readUuid(in));
+        line.setOrderQuantity(readInteger(in));
+        line.setQuantityAllocated(readInteger(in));
+        return line;
+    }
+
+    private static void writeUuid(DataOutput out, UUID value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value.getMostSignificantBits());
+            out.writeLong(value.getLeastSignificantBits());
+        }
+    }
+
+    private static UUID readUuid(DataInput in) throws IOException {
+        return in.readBoolean() ? new UUID(in.readLong(), in.readLong()) : null;
+    }
+
+    private static void writeInteger(DataOutput out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    private static Integer readInteger(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    private static void writeBoolean(DataOutput out, Boolean value) throws IOException {
+        out.writeByte(value == null ? -1 : value ? 1 : 0);
+    }
+
+    private static Boolean readBoolean(DataInput in) throws IOException {
+        byte value = in.readByte();
+        return value < 0 ? null : value == 1;
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeDateTime(DataOutput out, OffsetDateTime value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value.toEpochSecond());
+            out.writeInt(value.getNano());
+            out.writeInt(value.getOffset().getTotalSeconds());
+        }
+    }
+
+    private static OffsetDateTime readDateTime(DataInput in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        Instant instant = Instant.ofEpochSecond(in.readLong(), in.readInt());
+        return OffsetDateTime.ofInstant(instant, ZoneOffset.ofTotalSeconds(in.readInt()));
+    }
+
+    private static void writeDecimal(DataOutput out, BigDecimal value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            byte[] unscaled = value.unscaledValue().toByteArray();
+            out.writeInt(value.scale());
+            out.writeShort(unscaled.length);
+            out.write(unscaled);
+        }
+    }
+
+    private static BigDecimal readDecimal(DataInput in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        int scale = in.readInt();
+        byte[] unscaled = new byte[in.readUnsignedShort()];
+        in.readFully(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), scale);
+    }
+
+    @FunctionalInterface
+    private interface Writer<T> {
+        void write(DataOutput out, T event) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Reader<T> {
+        T read(DataInput in) throws IOException;
+    }
+
+    private static class Type<T> {
+        final byte      tag;
+        final Writer<T> writer;
+        final Reader<T> reader;
+
+        Type(byte tag, Writer<T> writer, Reader<T> reader) {
+            this.tag = tag;
+            this.writer = writer;
+            this.reader = reader;
+        }
+    }
+}
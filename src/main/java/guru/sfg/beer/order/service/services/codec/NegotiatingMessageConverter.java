@@ -0,0 +1,85 @@
+package guru.sfg.beer.order.service.services.codec;
+
+import guru.sfg.beer.order.service.config.JmsConfig;
+import org.springframework.jms.support.converter.MessageConversionException;
+import org.springframework.jms.support.converter.MessageConverter;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+import java.util.Map;
+
+/**
+ * Reads both JSON and {@link BinaryEventCodec binary} events, telling them apart by the
+ * {@link JmsConfig#CONTENT_TYPE_PROPERTY} property, so peers that only speak JSON keep working. Writes binary only to
+ * destinations whose codec is binary, and only for the event classes the codec supports; everything else goes to the
+ * JSON converter. A destination's codec is its own setting if it has one, otherwise the default, which is also what
+ * {@link #toMessage} uses since it isn't told the destination.
+ */
+public class NegotiatingMessageConverter implements MessageConverter {
+
+    public static final String JSON_CONTENT_TYPE   = "application/json";
+    public static final String BINARY_CONTENT_TYPE = "application/x-sfg-event";
+
+    private final MessageConverter             json;
+    private final JmsConfig.Codec              defaultCodec;
+    private final Map<String, JmsConfig.Codec> destinationCodecs;
+
+    public NegotiatingMessageConverter(MessageConverter json,
+                                       JmsConfig.Codec defaultCodec,
+                                       Map<String, JmsConfig.Codec> destinationCodecs) {
+        this.json = json;
+        this.defaultCodec = defaultCodec;
+        this.destinationCodecs = Map.copyOf(destinationCodecs);
+    }
+
+    /**
+     * @param destination the queue the event is for, or null for the default codec.
+     */
+    public boolean writesBinary(String destination, Class<?> payloadClass) {
+        JmsConfig.Codec codec = destination == null
+                                ? defaultCodec
+                                : destinationCodecs.getOrDefault(destination, defaultCodec);
+        return codec == JmsConfig.Codec.BINARY && BinaryEventCodec.supports(payloadClass);
+    }
+
+    @Override
+    public Message toMessage(Object object, Session session) throws JMSException {
+        if (!writesBinary(null, object.getClass())) {
+            Message message = json.toMessage(object, session);
+            message.setStringProperty(JmsConfig.CONTENT_TYPE_PROPERTY, JSON_CONTENT_TYPE);
+            return message;
+        }
+        return binaryMessage(session, object.getClass().getName(), BinaryEventCodec.encode(object));
+    }
+
+    /**
+     * A binary event message around a body that has already been encoded.
+     */
+    public static BytesMessage binaryMessage(Session session, String payloadType, byte[] body) throws JMSException {
+        BytesMessage message = session.createBytesMessage();
+        message.writeBytes(body);
+        message.setStringProperty(JmsConfig.CONTENT_TYPE_PROPERTY, BINARY_CONTENT_TYPE);
+        message.setStringProperty(JmsConfig.TYPE_ID_PROPERTY, payloadType);
+        return message;
+    }
+
+    @Override
+    public Object fromMessage(Message message) throws JMSException {
+        if (!BINARY_CONTENT_TYPE.equals(message.getStringProperty(JmsConfig.CONTENT_TYPE_PROPERTY))) {
+            return json.fromMessage(message);
+        }
+        if (!(message instanceof BytesMessage)) {
+            throw new MessageConversionException("Binary event is not a BytesMessage: " + message);
+        }
+        BytesMessage bytesMessage = (BytesMessage) message;
+        byte[] body = new byte[(int) bytesMessage.getBodyLength()];
+        bytesMessage.readBytes(body);
+        try {
+            return BinaryEventCodec.decode(body);
+        } catch (RuntimeException e) {
+            throw new MessageConversionException("Could not decode binary event", e);
+        }
+    }
+}
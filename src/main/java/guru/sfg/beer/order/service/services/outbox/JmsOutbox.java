@@ -0,0 +1,56 @@
+package guru.sfg.beer.order.service.services.outbox;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import guru.sfg.beer.order.service.domain.OutboxMessage;
+import guru.sfg.beer.order.service.repositories.OutboxMessageRepository;
+import guru.sfg.beer.order.service.services.codec.BinaryEventCodec;
+import guru.sfg.beer.order.service.services.codec.NegotiatingMessageConverter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Drop-in for {@code JmsTemplate.convertAndSend} that stores the message in the outbox table as part of the current
+ * transaction. {@link OutboxRelay} sends it once the transaction commits, so a rolled back state change never
+ * leaks a message and a slow broker never holds up a transition.
+ * <p>
+ * The payload is serialized here, once, in the form its destination takes, so the relay sends it as stored.
+ */
+@Component
+@RequiredArgsConstructor
+public class JmsOutbox {
+
+    private final OutboxMessageRepository     outboxMessageRepository;
+    private final ObjectMapper                objectMapper;
+    private final NegotiatingMessageConverter messageConverter;
+    private final OutboxRelay                 outboxRelay;
+
+    public void convertAndSend(String destination, Object payload) {
+        OutboxMessage.OutboxMessageBuilder message = OutboxMessage.builder()
+                .destination(destination)
+                .payloadType(payload.getClass().getName());
+        if (messageConverter.writesBinary(destination, payload.getClass())) {
+            message.binaryPayload(BinaryEventCodec.encode(payload));
+        } else {
+            try {
+                message.payload(objectMapper.writeValueAsString(payload));
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("Could not serialize " + payload.getClass().getName(), e);
+            }
+        }
+        outboxMessageRepository.save(message.build());
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    outboxRelay.wake();
+                }
+            });
+        } else {
+            outboxRelay.wake();
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package guru.sfg.beer.order.service.services.outbox;
+
+import guru.sfg.beer.order.service.config.JmsConfig;
+import guru.sfg.beer.order.service.domain.OutboxMessage;
+import guru.sfg.beer.order.service.repositories.OutboxMessageRepository;
+import guru.sfg.beer.order.service.services.codec.BinaryEventCodec;
+import guru.sfg.beer.order.service.services.codec.NegotiatingMessageConverter;
+import guru.sfg.brewery.model.events.AllocateOrdersRequest;
+import guru.sfg.brewery.model.events.DeallocateOrdersRequest;
+import guru.sfg.brewery.model.events.ValidateOrdersRequest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Setter;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Drains the outbox table on a single thread of its own, oldest first. Each batch is first claimed, so that with
+ * several instances of the service running every message is sent by one of them; then it is sent in one transacted
+ * JMS session and deleted with a single statement. A failed send gives up the claim so the batch is retried on the
+ * next pass. A crash after sending leaves the claim to run out after {@code sfg.brewery.outbox.claim-timeout}, and
+ * the batch is sent again: delivery is at least once.
+ * <p>
+ * The relay is woken after each commit that writes to the outbox, and polled as a backstop when scheduling is
+ * enabled.
+ * <p>
+ * With {@code sfg.brewery.outbox.batch-requests} on, validate, allocate and deallocate requests are combined into one
+ * message per queue on the matching {@code -batch} queue. A partial batch is held for up to
+ * {@code sfg.brewery.outbox.batch-window} after its oldest request was written, so more can join it.
+ * <p>
+ * Payloads are stored already serialized, as JSON or as a binary event, and sent as they are. Binary requests are
+ * combined into a binary batch, JSON ones into a JSON batch.
+ */
+@Slf4j
+@ConfigurationProperties(prefix = "sfg.brewery.outbox")
+@Component
+public class OutboxRelay {
+
+    private static final Map<String, BatchRoute> BATCH_ROUTES = Map.of(
+            JmsConfig.VALIDATE_ORDER_QUEUE,
+            new BatchRoute(JmsConfig.VALIDATE_ORDER_BATCH_QUEUE, ValidateOrdersRequest.class),
+            JmsConfig.ALLOCATE_ORDER_QUEUE,
+            new BatchRoute(JmsConfig.ALLOCATE_ORDER_BATCH_QUEUE, AllocateOrdersRequest.class),
+            JmsConfig.DEALLOCATE_ORDER_QUEUE,
+            new BatchRoute(JmsConfig.DEALLOCATE_ORDER_BATCH_QUEUE, DeallocateOrdersRequest.class));
+
+    private final OutboxMessageRepository outboxMessageRepository;
+    private final JmsTemplate             jmsTemplate;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "outbox-relay");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean            pending  = new AtomicBoolean();
+
+    private final Counter             relayed;
+    private final DistributionSummary batchSizes;
+    private final DistributionSummary requestsPerMessage;
+    private final Timer               lag;
+
+    @Setter
+    private int batchSize = 100;
+
+    @Setter
+    private boolean batchRequests = false;
+
+    @Setter
+    private Duration batchWindow = Duration.ofMillis(20);
+
+    @Setter
+    private Duration claimTimeout = Duration.ofSeconds(30);
+
+    public OutboxRelay(OutboxMessageRepository outboxMessageRepository,
+                       ConnectionFactory connectionFactory,
+                       MeterRegistry meterRegistry) {
+        this.outboxMessageRepository = outboxMessageRepository;
+        this.jmsTemplate = new JmsTemplate(connectionFactory);
+        this.jmsTemplate.setSessionTransacted(true);
+
+        relayed = meterRegistry.counter("sfg.brewery.outbox.relayed");
+        batchSizes = meterRegistry.summary("sfg.brewery.outbox.batch.size");
+        requestsPerMessage = meterRegistry.summary("sfg.brewery.outbox.batched.requests");
+        lag = meterRegistry.timer("sfg.brewery.outbox.lag");
+    }
+
+    /**
+     * Schedule a drain unless one is already waiting to start.
+     */
+    public void wake() {
+        if (pending.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        wake();
+    }
+
+    @Scheduled(fixedDelayString = "${sfg.brewery.outbox.poll-interval:PT5S}")
+    public void poll() {
+        wake();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private void drain() {
+        // Cleared before reading, so a message committed while this pass runs schedules another one.
+        pending.set(false);
+        try {
+            while (relayBatch() == batchSize) {
+                // Keep going while batches come back full.
+            }
+        } catch (RuntimeException e) {
+            log.error("Outbox relay failed, unsent messages will be retried", e);
+        }
+    }
+
+    private int relayBatch() {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        List<OutboxMessage> candidates = outboxMessageRepository.findClaimable(now, PageRequest.of(0, batchSize));
+        if (candidates.isEmpty()) {
+            return 0;
+        }
+
+        if (batchRequests && candidates.size() < batchSize) {
+            long age = now.getTime() - candidates.get(0).getCreatedDate().getTime();
+            if (age < batchWindow.toMillis() && pending.compareAndSet(false, true)) {
+                // Hold the partial batch open; wakes in the meantime are absorbed by the pending flag.
+                executor.schedule(this::drain, batchWindow.toMillis() - age, TimeUnit.MILLISECONDS);
+                return 0;
+            }
+        }
+
+        String claim = UUID.randomUUID().toString();
+        int claimed = outboxMessageRepository.claim(
+                candidates.stream().map(OutboxMessage::getId).collect(Collectors.toList()),
+                claim, now, new Timestamp(now.getTime() + claimTimeout.toMillis()));
+        if (claimed == 0) {
+            // All taken by other relays.
+            return candidates.size();
+        }
+        List<OutboxMessage> batch = claimed == candidates.size()
+                                    ? candidates
+                                    : outboxMessageRepository.findByClaimedByOrderByIdAsc(claim);
+
+        try {
+            send(batch);
+        } catch (RuntimeException e) {
+            outboxMessageRepository.release(claim);
+            throw e;
+        }
+
+        outboxMessageRepository.deleteByIdIn(batch.stream().map(OutboxMessage::getId).collect(Collectors.toList()));
+
+        long sentAt = System.currentTimeMillis();
+        batch.forEach(outboxMessage -> lag.record(
+                Duration.ofMillis(Math.max(0, sentAt - outboxMessage.getCreatedDate().getTime()))));
+        relayed.increment(batch.size());
+        batchSizes.record(batch.size());
+        if (batchRequests) {
+            batch.stream()
+                    .filter(outboxMessage -> BATCH_ROUTES.containsKey(outboxMessage.getDestination()))
+                    .collect(Collectors.groupingBy(OutboxMessage::getDestination, Collectors.counting()))
+                    .values()
+                    .forEach(requestsPerMessage::record);
+        }
+        log.debug("Relayed " + batch.size() + " outbox messages");
+        return candidates.size();
+    }
+
+    private void send(List<OutboxMessage> batch) {
+        jmsTemplate.execute(session -> {
+            Map<String, MessageProducer> producers = new HashMap<>();
+            Map<BatchRoute, StringJoiner> combinedJson = new LinkedHashMap<>();
+            Map<BatchRoute, List<byte[]>> combinedBinary = new LinkedHashMap<>();
+            try {
+                for (OutboxMessage outboxMessage : batch) {
+                    BatchRoute route = batchRequests ? BATCH_ROUTES.get(outboxMessage.getDestination()) : null;
+                    if (route == null) {
+                        send(session, producers, outboxMessage.getDestination(), toMessage(session, outboxMessage));
+                    } else if (outboxMessage.getBinaryPayload() != null) {
+                        combinedBinary.computeIfAbsent(route, r -> new ArrayList<>())
+                                .add(outboxMessage.getBinaryPayload());
+                    } else {
+                        // Each payload is already JSON, so the batch body is assembled without re-serializing.
+                        combinedJson.computeIfAbsent(route, r -> new StringJoiner(",", "{\"requests\":[", "]}"))
+                                .add(outboxMessage.getPayload());
+                    }
+                }
+                for (Map.Entry<BatchRoute, StringJoiner> entry : combinedJson.entrySet()) {
+                    BatchRoute route = entry.getKey();
+                    send(session, producers, route.getDestination(),
+                         jsonMessage(session, route.getPayloadType().getName(), entry.getValue().toString()));
+                }
+                for (Map.Entry<BatchRoute, List<byte[]>> entry : combinedBinary.entrySet()) {
+                    BatchRoute route = entry.getKey();
+                    byte[] body = BinaryEventCodec.combine(route.getPayloadType(), entry.getValue());
+                    send(session, producers, route.getDestination(),
+                         NegotiatingMessageConverter.binaryMessage(session, route.getPayloadType().getName(), body));
+                }
+                session.commit();
+            } finally {
+                for (MessageProducer producer : producers.values()) {
+                    producer.close();
+                }
+            }
+            return null;
+        }, false);
+    }
+
+    private void send(Session session,
+                      Map<String, MessageProducer> producers,
+                      String destinationName,
+                      Message message) throws JMSException {
+        MessageProducer producer = producers.get(destinationName);
+        if (producer == null) {
+            producer = session.createProducer(
+                    jmsTemplate.getDestinationResolver().resolveDestinationName(session, destinationName, false));
+            producers.put(destinationName, producer);
+        }
+        producer.send(message);
+    }
+
+    private static Message toMessage(Session session, OutboxMessage outboxMessage) throws JMSException {
+        if (outboxMessage.getBinaryPayload() != null) {
+            return NegotiatingMessageConverter.binaryMessage(session, outboxMessage.getPayloadType(),
+                                                             outboxMessage.getBinaryPayload());
+        }
+        return jsonMessage(session, outboxMessage.getPayloadType(), outboxMessage.getPayload());
+    }
+
+    private static Message jsonMessage(Session session, String payloadType, String payload) throws JMSException {
+        // Already serialized with the application's ObjectMapper, exactly as the message converter would.
+        TextMessage message = session.createTextMessage(payload);
+        message.setStringProperty(JmsConfig.TYPE_ID_PROPERTY, payloadType);
+        message.setStringProperty(JmsConfig.CONTENT_TYPE_PROPERTY, NegotiatingMessageConverter.JSON_CONTENT_TYPE);
+        return message;
+    }
+
+    @Value
+    private static class BatchRoute {
+        String   destination;
+        Class<?> payloadType;
+    }
+}
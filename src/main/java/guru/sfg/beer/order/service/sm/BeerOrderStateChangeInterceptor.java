@@ -1,12 +1,15 @@
 package guru.sfg.beer.order.service.sm;
 
+import guru.sfg.beer.order.service.domain.BeerOrder;
 import guru.sfg.beer.order.service.domain.BeerOrderEventEnum;
 import guru.sfg.beer.order.service.domain.BeerOrderStatusEnum;
+import guru.sfg.beer.order.service.repositories.BeerOrderBatchWriter;
 import guru.sfg.beer.order.service.repositories.BeerOrderRepository;
 import guru.sfg.beer.order.service.services.BeerOrderManagerImpl;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.messaging.Message;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.statemachine.StateMachine;
 import org.springframework.statemachine.state.State;
 import org.springframework.statemachine.support.StateMachineInterceptorAdapter;
@@ -15,6 +18,7 @@ import org.springframework.stereotype.Component;
 
 import java.util.Optional;
 import java.util.UUID;
+import java.util.function.BooleanSupplier;
 
 @Component
 @RequiredArgsConstructor
@@ -22,26 +26,75 @@ import java.util.UUID;
 public class BeerOrderStateChangeInterceptor
         extends StateMachineInterceptorAdapter<BeerOrderStatusEnum, BeerOrderEventEnum> {
 
-    private final BeerOrderRepository beerOrderRepository;
+    private static final ThreadLocal<Outcome> OUTCOME = new ThreadLocal<>();
 
+    private final BeerOrderRepository  beerOrderRepository;
+    private final BeerOrderBatchWriter beerOrderBatchWriter;
+
+    /**
+     * Persist the new status with a compare-and-set on the transition's source status and the order version carried
+     * in {@link BeerOrderManagerImpl#ORDER_VERSION_HEADER}. Losing the race throws, which aborts the transition, and
+     * is reported again by {@link #persisting} since Spring Statemachine only logs it.
+     * The order carried in {@link BeerOrderManagerImpl#ORDER_HEADER}, if any, is brought up to date so the next
+     * event in the same unit of work starts from the new status. Inside {@link BeerOrderBatchWriter#run(Runnable)} the
+     * write is deferred to the batch, which fails as a whole if any compare-and-set loses.
+     */
     @Override
     public void preStateChange(State<BeerOrderStatusEnum, BeerOrderEventEnum> state,
                                Message<BeerOrderEventEnum> message,
                                Transition<BeerOrderStatusEnum, BeerOrderEventEnum> transition,
                                StateMachine<BeerOrderStatusEnum, BeerOrderEventEnum> stateMachine) {
         Optional.ofNullable(message)
-                .map(msg -> (String) msg.getHeaders().get(BeerOrderManagerImpl.ORDER_ID_HEADER))
-                .ifPresent(orderId -> {
-                    beerOrderRepository.findById(UUID.fromString(orderId)).ifPresentOrElse(
-                            beerOrder -> {
+                .map(msg -> (UUID) msg.getHeaders().get(BeerOrderManagerImpl.ORDER_ID_HEADER))
+                .ifPresent(beerOrderId -> {
+                    Long version = (Long) message.getHeaders().get(BeerOrderManagerImpl.ORDER_VERSION_HEADER);
+                    if (beerOrderBatchWriter.isActive()) {
+                        beerOrderBatchWriter.compareAndSetStatus(
+                                beerOrderId, transition.getSource().getId(), version, state.getId());
+                    } else if (beerOrderRepository.compareAndSetStatus(
+                            beerOrderId, transition.getSource().getId(), version, state.getId()) == 0) {
+                        ObjectOptimisticLockingFailureException lost =
+                                new ObjectOptimisticLockingFailureException(BeerOrder.class, beerOrderId);
+                        Optional.ofNullable(OUTCOME.get()).ifPresent(outcome -> outcome.lostUpdate = lost);
+                        throw lost;
+                    }
+                    Optional.ofNullable((BeerOrder) message.getHeaders().get(BeerOrderManagerImpl.ORDER_HEADER))
+                            .ifPresent(beerOrder -> {
                                 beerOrder.setOrderStatus(state.getId());
-                                beerOrderRepository.saveAndFlush(beerOrder);
-                                log.debug("Saved state for order id: " + orderId + " Status: " + state.getId());
-
-                            },
-                            () -> {
-                                log.error("Order not found: " + orderId);
+                                beerOrder.setVersion(version + 1);
                             });
+                    Optional.ofNullable(OUTCOME.get()).ifPresent(outcome -> outcome.persisted = true);
+                    log.debug("Saved state for order id: " + beerOrderId + " Status: " + state.getId());
                 });
     }
+
+    /**
+     * Send an event and throw if a transition accepted it but was aborted, by a failed action or by a status update
+     * lost to a concurrent change, so that the surrounding transaction rolls back along with whatever the actions
+     * wrote, such as outbox messages. Spring Statemachine only logs either.
+     *
+     * @return false if no transition accepts the event.
+     */
+    public boolean persisting(Message<BeerOrderEventEnum> message, BooleanSupplier sendEvent) {
+        Outcome outcome = new Outcome();
+        OUTCOME.set(outcome);
+        try {
+            boolean accepted = sendEvent.getAsBoolean();
+            if (outcome.lostUpdate != null) {
+                throw outcome.lostUpdate;
+            }
+            if (accepted && !outcome.persisted) {
+                throw new IllegalStateException("Transition aborted for " + message.getPayload() + " on order "
+                                                + message.getHeaders().get(BeerOrderManagerImpl.ORDER_ID_HEADER));
+            }
+            return accepted;
+        } finally {
+            OUTCOME.remove();
+        }
+    }
+
+    private static class Outcome {
+        boolean                                 persisted;
+        ObjectOptimisticLockingFailureException lostUpdate;
+    }
 }
@@ -37,12 +37,16 @@ public class BeerOrderStateMachineConfig extends StateMachineConfigurerAdapter<B
         config.withConfiguration().listener(new StateMachineListenerAdapter() {
             @Override
             public void eventNotAccepted(Message event) {
-                val orderId = event.getHeaders().getOrDefault(ORDER_ID_HEADER, "???");
-                log.error("Event not accepted [" + event.getPayload() + "] for order [" + orderId + "]");
+                logEventNotAccepted(event);
             }
         });
     }
 
+    static void logEventNotAccepted(Message<?> event) {
+        val orderId = event.getHeaders().getOrDefault(ORDER_ID_HEADER, "???");
+        log.error("Event not accepted [" + event.getPayload() + "] for order [" + orderId + "]");
+    }
+
     @Override
     public void configure(StateMachineStateConfigurer<BeerOrderStatusEnum, BeerOrderEventEnum> states) throws Exception {
         states.withStates()
@@ -66,6 +70,11 @@ public class BeerOrderStateMachineConfig extends StateMachineConfigurerAdapter<B
                 .action(validateOrderAction)
                 .and()
                 .withExternal()
+                .event(BeerOrderEventEnum.VALIDATION_FAILED)
+                .source(BeerOrderStatusEnum.NEW).target(BeerOrderStatusEnum.VALIDATION_EXCEPTION)
+                .action(validationFailureAction)
+                .and()
+                .withExternal()
                 .event(BeerOrderEventEnum.VALIDATION_PASSED)
                 .source(BeerOrderStatusEnum.VALIDATION_PENDING).target(BeerOrderStatusEnum.VALIDATED)
 
@@ -0,0 +1,123 @@
+package guru.sfg.beer.order.service.sm;
+
+import guru.sfg.beer.order.service.domain.BeerOrderEventEnum;
+import guru.sfg.beer.order.service.domain.BeerOrderStatusEnum;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.config.StateMachineFactory;
+import org.springframework.statemachine.support.DefaultStateMachineContext;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded pool of beer order state machines. Machines are built once, with the state change interceptor attached,
+ * and then rehydrated to the order's persisted status each time they are borrowed.
+ */
+@Slf4j
+@ConditionalOnProperty(
+        value = BeerOrderTransitionEngine.ENGINE_PROPERTY, havingValue = "spring", matchIfMissing = true
+)
+@ConfigurationProperties(prefix = "sfg.brewery.state-machine.pool")
+@Component
+public class BeerOrderStateMachinePool {
+
+    private final StateMachineFactory<BeerOrderStatusEnum, BeerOrderEventEnum> stateMachineFactory;
+    private final BeerOrderStateChangeInterceptor                              beerOrderStateChangeInterceptor;
+    private final MeterRegistry                                                meterRegistry;
+
+    private final Deque<StateMachine<BeerOrderStatusEnum, BeerOrderEventEnum>> idle = new ConcurrentLinkedDeque<>();
+    private Semaphore permits;
+
+    @Setter
+    private int maxSize = 16;
+
+    @Setter
+    private int minIdle = 2;
+
+    @Setter
+    private Duration borrowTimeout = Duration.ofSeconds(5);
+
+    public BeerOrderStateMachinePool(StateMachineFactory<BeerOrderStatusEnum, BeerOrderEventEnum> stateMachineFactory,
+                                     BeerOrderStateChangeInterceptor beerOrderStateChangeInterceptor,
+                                     MeterRegistry meterRegistry) {
+        this.stateMachineFactory = stateMachineFactory;
+        this.beerOrderStateChangeInterceptor = beerOrderStateChangeInterceptor;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        permits = new Semaphore(maxSize);
+        for (int i = 0; i < Math.min(minIdle, maxSize); i++) {
+            idle.push(create());
+        }
+        meterRegistry.gaugeCollectionSize("sfg.brewery.state-machine.pool.idle", Collections.emptyList(), idle);
+        meterRegistry.gauge("sfg.brewery.state-machine.pool.active", Collections.emptyList(), permits,
+                            p -> maxSize - p.availablePermits());
+    }
+
+    /**
+     * Borrow a machine reset to the given status. It must be handed back with {@link #release(StateMachine)}.
+     */
+    public StateMachine<BeerOrderStatusEnum, BeerOrderEventEnum> borrow(BeerOrderStatusEnum orderStatus) {
+        try {
+            if (!permits.tryAcquire(borrowTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("No state machine available after " + borrowTimeout);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for a state machine", e);
+        }
+
+        try {
+            StateMachine<BeerOrderStatusEnum, BeerOrderEventEnum> sm = idle.poll();
+            if (sm == null) {
+                sm = create();
+            }
+            reset(sm, orderStatus);
+            return sm;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public void release(StateMachine<BeerOrderStatusEnum, BeerOrderEventEnum> sm) {
+        if (sm.hasStateMachineError()) {
+            // Don't hand a broken machine to the next order.
+            log.warn("Discarding state machine in error: " + sm.getId());
+            sm.stop();
+        } else {
+            idle.push(sm);
+        }
+        permits.release();
+    }
+
+    private StateMachine<BeerOrderStatusEnum, BeerOrderEventEnum> create() {
+        StateMachine<BeerOrderStatusEnum, BeerOrderEventEnum> sm = stateMachineFactory.getStateMachine();
+        sm.getStateMachineAccessor()
+                .doWithAllRegions(sma -> sma.addStateMachineInterceptor(beerOrderStateChangeInterceptor));
+        return sm;
+    }
+
+    private void reset(StateMachine<BeerOrderStatusEnum, BeerOrderEventEnum> sm, BeerOrderStatusEnum orderStatus) {
+        sm.stop();
+        sm.getStateMachineAccessor()
+                .doWithAllRegions(sma -> sma.resetStateMachine(new DefaultStateMachineContext<>(orderStatus,
+                                                                                                null,
+                                                                                                null,
+                                                                                                null)));
+        sm.start();
+    }
+}
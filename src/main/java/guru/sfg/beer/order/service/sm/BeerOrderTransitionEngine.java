@@ -0,0 +1,20 @@
+package guru.sfg.beer.order.service.sm;
+
+import guru.sfg.beer.order.service.domain.BeerOrderEventEnum;
+import guru.sfg.beer.order.service.domain.BeerOrderStatusEnum;
+import org.springframework.messaging.Message;
+
+/**
+ * Applies an event to an order in the given status: runs the transition's actions and persists the new status
+ * through {@link BeerOrderStateChangeInterceptor}. The implementation is chosen with
+ * {@value #ENGINE_PROPERTY} ({@code spring} or {@code table}).
+ */
+public interface BeerOrderTransitionEngine {
+
+    String ENGINE_PROPERTY = "sfg.brewery.state-machine.engine";
+
+    /**
+     * @return false if no transition accepts the event in the given status.
+     */
+    boolean sendEvent(BeerOrderStatusEnum orderStatus, Message<BeerOrderEventEnum> message);
+}
@@ -0,0 +1,35 @@
+package guru.sfg.beer.order.service.sm;
+
+import guru.sfg.beer.order.service.domain.BeerOrderEventEnum;
+import guru.sfg.beer.order.service.domain.BeerOrderStatusEnum;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.messaging.Message;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs events through Spring Statemachine instances borrowed from {@link BeerOrderStateMachinePool}. A transition
+ * aborted by a failed action or a lost status update is thrown from {@link #sendEvent} rather than only logged by the
+ * machine.
+ */
+@ConditionalOnProperty(
+        value = BeerOrderTransitionEngine.ENGINE_PROPERTY, havingValue = "spring", matchIfMissing = true
+)
+@Component
+@RequiredArgsConstructor
+public class PooledStateMachineEngine implements BeerOrderTransitionEngine {
+
+    private final BeerOrderStateMachinePool       beerOrderStateMachinePool;
+    private final BeerOrderStateChangeInterceptor beerOrderStateChangeInterceptor;
+
+    @Override
+    public boolean sendEvent(BeerOrderStatusEnum orderStatus, Message<BeerOrderEventEnum> message) {
+        StateMachine<BeerOrderStatusEnum, BeerOrderEventEnum> sm = beerOrderStateMachinePool.borrow(orderStatus);
+        try {
+            return beerOrderStateChangeInterceptor.persisting(message, () -> sm.sendEvent(message));
+        } finally {
+            beerOrderStateMachinePool.release(sm);
+        }
+    }
+}
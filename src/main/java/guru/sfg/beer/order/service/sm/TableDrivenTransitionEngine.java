@@ -0,0 +1,78 @@
+package guru.sfg.beer.order.service.sm;
+
+import guru.sfg.beer.order.service.domain.BeerOrderEventEnum;
+import guru.sfg.beer.order.service.domain.BeerOrderStatusEnum;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.messaging.Message;
+import org.springframework.statemachine.StateContext;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.action.Action;
+import org.springframework.statemachine.config.StateMachineFactory;
+import org.springframework.statemachine.support.DefaultExtendedState;
+import org.springframework.statemachine.support.DefaultStateContext;
+import org.springframework.statemachine.transition.Transition;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Applies events from an {@link EnumMap} of the transitions declared in {@link BeerOrderStateMachineConfig}, without
+ * building or resetting a state machine per event.
+ * <p>
+ * The table is compiled once from a machine built by the factory, so the configuration stays the single source of
+ * truth. Like Spring Statemachine, the transition's actions run first, then the interceptor persists the new status;
+ * an exception from either aborts the transition and is thrown on to the caller.
+ */
+@ConditionalOnProperty(value = BeerOrderTransitionEngine.ENGINE_PROPERTY, havingValue = "table")
+@Component
+public class TableDrivenTransitionEngine implements BeerOrderTransitionEngine {
+
+    private final StateMachineFactory<BeerOrderStatusEnum, BeerOrderEventEnum> stateMachineFactory;
+    private final BeerOrderStateChangeInterceptor                              beerOrderStateChangeInterceptor;
+
+    private final Map<BeerOrderStatusEnum, Map<BeerOrderEventEnum, Transition<BeerOrderStatusEnum, BeerOrderEventEnum>>>
+            transitions = new EnumMap<>(BeerOrderStatusEnum.class);
+
+    public TableDrivenTransitionEngine(StateMachineFactory<BeerOrderStatusEnum, BeerOrderEventEnum> stateMachineFactory,
+                                       BeerOrderStateChangeInterceptor beerOrderStateChangeInterceptor) {
+        this.stateMachineFactory = stateMachineFactory;
+        this.beerOrderStateChangeInterceptor = beerOrderStateChangeInterceptor;
+    }
+
+    @PostConstruct
+    public void init() {
+        StateMachine<BeerOrderStatusEnum, BeerOrderEventEnum> sm = stateMachineFactory.getStateMachine();
+        sm.getTransitions().stream()
+                .filter(t -> t.getTrigger() != null)
+                .forEach(t -> transitions
+                        .computeIfAbsent(t.getSource().getId(), s -> new EnumMap<>(BeerOrderEventEnum.class))
+                        .put(t.getTrigger().getEvent(), t));
+    }
+
+    @Override
+    public boolean sendEvent(BeerOrderStatusEnum orderStatus, Message<BeerOrderEventEnum> message) {
+        Map<BeerOrderEventEnum, Transition<BeerOrderStatusEnum, BeerOrderEventEnum>> byEvent =
+                transitions.get(orderStatus);
+        Transition<BeerOrderStatusEnum, BeerOrderEventEnum> transition =
+                byEvent == null ? null : byEvent.get(message.getPayload());
+
+        if (transition == null) {
+            BeerOrderStateMachineConfig.logEventNotAccepted(message);
+            return false;
+        }
+
+        StateContext<BeerOrderStatusEnum, BeerOrderEventEnum> context =
+                new DefaultStateContext<>(StateContext.Stage.TRANSITION, message, message.getHeaders(),
+                                          new DefaultExtendedState(), transition, null,
+                                          transition.getSource(), transition.getTarget(), null);
+        return beerOrderStateChangeInterceptor.persisting(message, () -> {
+            for (Action<BeerOrderStatusEnum, BeerOrderEventEnum> action : transition.getActions()) {
+                action.execute(context);
+            }
+            beerOrderStateChangeInterceptor.preStateChange(transition.getTarget(), message, transition, null);
+            return true;
+        });
+    }
+}
@@ -4,10 +4,10 @@ import guru.sfg.beer.order.service.config.JmsConfig;
 import guru.sfg.beer.order.service.domain.BeerOrderEventEnum;
 import guru.sfg.beer.order.service.domain.BeerOrderStatusEnum;
 import guru.sfg.beer.order.service.services.BeerOrderManagerImpl;
+import guru.sfg.beer.order.service.services.outbox.JmsOutbox;
 import guru.sfg.brewery.model.events.AllocationFailureEvent;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.jms.core.JmsTemplate;
 import org.springframework.statemachine.StateContext;
 import org.springframework.statemachine.action.Action;
 import org.springframework.stereotype.Component;
@@ -20,15 +20,15 @@ import java.util.UUID;
 @Component
 public class AllocationFailureAction implements Action<BeerOrderStatusEnum, BeerOrderEventEnum> {
 
-    private final JmsTemplate jmsTemplate;
+    private final JmsOutbox jmsOutbox;
 
     @Override
     public void execute(StateContext<BeerOrderStatusEnum, BeerOrderEventEnum> context) {
-        Optional.ofNullable((String)context.getMessage().getHeaders().get(BeerOrderManagerImpl.ORDER_ID_HEADER)).ifPresentOrElse(
+        Optional.ofNullable((UUID) context.getMessage().getHeaders().get(BeerOrderManagerImpl.ORDER_ID_HEADER)).ifPresentOrElse(
                 beerOrderId -> {
-                    jmsTemplate.convertAndSend(
+                    jmsOutbox.convertAndSend(
                             JmsConfig.ALLOCATE_FAILURE_QUEUE,
-                            new AllocationFailureEvent(UUID.fromString(beerOrderId)));
+                            new AllocationFailureEvent(beerOrderId));
                     log.error("Sent Allocation Failure Message to queue for order id " + beerOrderId);
                 },
                 () -> {
@@ -8,13 +8,15 @@ import org.springframework.statemachine.StateContext;
 import org.springframework.statemachine.action.Action;
 import org.springframework.stereotype.Component;
 
+import java.util.UUID;
+
 @Slf4j
 @Component
 public class ValidationFailureAction implements Action<BeerOrderStatusEnum, BeerOrderEventEnum> {
 
     @Override
     public void execute(StateContext<BeerOrderStatusEnum, BeerOrderEventEnum> context) {
-        String beerOrderId = (String)context.getMessage().getHeaders().get(BeerOrderManagerImpl.ORDER_ID_HEADER);
+        UUID beerOrderId = (UUID) context.getMessage().getHeaders().get(BeerOrderManagerImpl.ORDER_ID_HEADER);
         log.error("Compensating Transaction... Validation Failed: " + beerOrderId);
     }
 }
@@ -17,63 +17,147 @@
 
 package guru.sfg.beer.order.service.web.controllers;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import guru.sfg.beer.order.service.services.BeerOrderService;
+import guru.sfg.beer.order.service.services.PageCursor;
+import guru.sfg.beer.order.service.services.UnknownBeersException;
 import guru.sfg.brewery.model.BeerOrderDto;
 import guru.sfg.brewery.model.BeerOrderPagedList;
+import guru.sfg.brewery.model.CursorPage;
+import guru.sfg.brewery.model.CustomerDto;
 import guru.sfg.brewery.model.CustomerPagedList;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.OptionalLong;
 import java.util.UUID;
 
+@ConfigurationProperties(prefix = "sfg.brewery.orders-api")
 @RequestMapping("/api/v1/")
 @RestController
 public class BeerOrderController {
 
     private static final Integer DEFAULT_PAGE_NUMBER = 0;
     private static final Integer DEFAULT_PAGE_SIZE = 25;
+    public static final String NDJSON = "application/x-ndjson";
 
     private final BeerOrderService beerOrderService;
+    private final ObjectWriter     jsonWriter;
 
-    public BeerOrderController(BeerOrderService beerOrderService) {
+    /**
+     * Larger requested page sizes are cut down to this; use the cursor or export endpoints to read further.
+     */
+    @Setter
+    private int maxPageSize = 250;
+
+    public BeerOrderController(BeerOrderService beerOrderService, ObjectMapper objectMapper) {
         this.beerOrderService = beerOrderService;
+        this.jsonWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
     }
 
+    /**
+     * Written out as each order is mapped, in the shape of a {@link BeerOrderPagedList}.
+     */
     @GetMapping("customers/{customerId}/orders")
-    public BeerOrderPagedList listOrders(@PathVariable("customerId") UUID customerId,
-                                         @RequestParam(value = "pageNumber", required = false) Integer pageNumber,
-                                         @RequestParam(value = "pageSize", required = false) Integer pageSize){
+    public void listOrders(@PathVariable("customerId") UUID customerId,
+                           @RequestParam(value = "pageNumber", required = false) Integer pageNumber,
+                           @RequestParam(value = "pageSize", required = false) Integer pageSize,
+                           HttpServletResponse response) throws IOException {
 
         if (pageNumber == null || pageNumber < 0){
             pageNumber = DEFAULT_PAGE_NUMBER;
         }
 
-        if (pageSize == null || pageSize < 1) {
-            pageSize = DEFAULT_PAGE_SIZE;
+        PageRequest pageRequest = PageRequest.of(pageNumber, pageSize(pageSize));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        PagedJsonWriter<BeerOrderDto> page = new PagedJsonWriter<>(jsonWriter, response.getOutputStream());
+        OptionalLong total = beerOrderService.listOrders(customerId, pageRequest, page);
+        if (total.isPresent()) {
+            page.finish(pageRequest, total.getAsLong());
         }
-
-        return beerOrderService.listOrders(customerId, PageRequest.of(pageNumber, pageSize));
     }
 
+    /**
+     * Written out as each customer is mapped, in the shape of a {@link CustomerPagedList}.
+     */
     @GetMapping("customers")
-    public CustomerPagedList listCustomers(@RequestParam(value = "pageNumber", required = false) Integer pageNumber,
-                                           @RequestParam(value = "pageSize", required = false) Integer pageSize) {
+    public void listCustomers(@RequestParam(value = "pageNumber", required = false) Integer pageNumber,
+                              @RequestParam(value = "pageSize", required = false) Integer pageSize,
+                              HttpServletResponse response) throws IOException {
         if (pageNumber == null || pageNumber < 0){
             pageNumber = DEFAULT_PAGE_NUMBER;
         }
 
-        if (pageSize == null || pageSize < 1) {
-            pageSize = DEFAULT_PAGE_SIZE;
-        }
+        PageRequest pageRequest = PageRequest.of(pageNumber, pageSize(pageSize));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        PagedJsonWriter<CustomerDto> page = new PagedJsonWriter<>(jsonWriter, response.getOutputStream());
+        page.finish(pageRequest, beerOrderService.listCustomers(pageRequest, page));
+    }
 
-        return beerOrderService.listCustomers(PageRequest.of(pageNumber, pageSize));
+    /**
+     * Orders oldest first, a page at a time, continuing from {@code cursor}: each page costs the same however deep
+     * it is, and the total is only counted when {@code includeTotal} is set.
+     */
+    @GetMapping("customers/{customerId}/orders/cursor")
+    public CursorPage<BeerOrderDto> listOrdersByCursor(
+            @PathVariable("customerId") UUID customerId,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "pageSize", required = false) Integer pageSize,
+            @RequestParam(value = "includeTotal", defaultValue = "false") boolean includeTotal) {
+        return beerOrderService.listOrders(customerId, decode(cursor), pageSize(pageSize), includeTotal);
+    }
+
+    @GetMapping("customers/cursor")
+    public CursorPage<CustomerDto> listCustomersByCursor(
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "pageSize", required = false) Integer pageSize,
+            @RequestParam(value = "includeTotal", defaultValue = "false") boolean includeTotal) {
+        return beerOrderService.listCustomers(decode(cursor), pageSize(pageSize), includeTotal);
+    }
+
+    /**
+     * All of a customer's orders, oldest first, one JSON document per line, written out as they are read.
+     */
+    @GetMapping(value = "customers/{customerId}/orders/export", produces = NDJSON)
+    public void exportOrders(@PathVariable("customerId") UUID customerId, HttpServletResponse response)
+            throws IOException {
+        response.setContentType(NDJSON);
+        JsonGenerator generator = jsonWriter.getFactory().createGenerator(response.getOutputStream());
+        generator.setRootValueSeparator(null);
+
+        boolean found = beerOrderService.exportOrders(customerId, beerOrder -> {
+            try {
+                jsonWriter.writeValue(generator, beerOrder);
+                generator.writeRaw('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        if (!found) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Customer not found");
+        }
+        generator.flush();
     }
 
     @PostMapping("customers/{customerId}/orders")
     @ResponseStatus(HttpStatus.CREATED)
     public BeerOrderDto placeOrder(@PathVariable("customerId") UUID customerId, @RequestBody BeerOrderDto beerOrderDto){
-        return beerOrderService.placeOrder(customerId, beerOrderDto);
+        try {
+            return beerOrderService.placeOrder(customerId, beerOrderDto);
+        } catch (UnknownBeersException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
     }
 
     @GetMapping("customers/{customerId}/orders/{orderId}")
@@ -86,4 +170,22 @@ public class BeerOrderController {
     public void pickupOrder(@PathVariable("customerId") UUID customerId, @PathVariable("orderId") UUID orderId){
         beerOrderService.pickupOrder(customerId, orderId);
     }
+
+    private int pageSize(Integer requested) {
+        if (requested == null || requested < 1) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        return Math.min(requested, maxPageSize);
+    }
+
+    private static PageCursor decode(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            return PageCursor.decode(cursor);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor", e);
+        }
+    }
 }
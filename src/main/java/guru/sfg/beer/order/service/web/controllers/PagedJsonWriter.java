@@ -0,0 +1,76 @@
+package guru.sfg.beer.order.service.web.controllers;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.springframework.data.domain.Pageable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+/**
+ * Writes a page in the JSON shape of a serialized {@link org.springframework.data.domain.PageImpl}, which is what
+ * clients read the paged lists from, but writes each row as it is handed over instead of serializing a page built in
+ * memory. The page's position follows the content, since the rows are only counted once they have all been written.
+ */
+class PagedJsonWriter<T> implements Consumer<T> {
+
+    private final ObjectWriter  writer;
+    private final JsonGenerator generator;
+
+    private int rows;
+
+    PagedJsonWriter(ObjectWriter writer, OutputStream out) throws IOException {
+        this.writer = writer;
+        this.generator = writer.getFactory().createGenerator(out);
+    }
+
+    @Override
+    public void accept(T row) {
+        try {
+            if (rows++ == 0) {
+                start();
+            }
+            writer.writeValue(generator, row);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Close the content and write the page's position, worked out the way {@code PageImpl} does.
+     */
+    void finish(Pageable pageable, long total) throws IOException {
+        if (rows == 0) {
+            start();
+        }
+        generator.writeEndArray();
+
+        // A short last page has the total corrected to what is actually there.
+        long totalElements = rows > 0 && pageable.getOffset() + pageable.getPageSize() > total
+                             ? pageable.getOffset() + rows
+                             : total;
+        int totalPages = (int) Math.ceil((double) totalElements / pageable.getPageSize());
+
+        generator.writeFieldName("pageable");
+        writer.writeValue(generator, pageable);
+        generator.writeNumberField("totalPages", totalPages);
+        generator.writeNumberField("totalElements", totalElements);
+        generator.writeBooleanField("last", pageable.getPageNumber() + 1 >= totalPages);
+        generator.writeNumberField("size", pageable.getPageSize());
+        generator.writeNumberField("number", pageable.getPageNumber());
+        generator.writeFieldName("sort");
+        writer.writeValue(generator, pageable.getSort());
+        generator.writeNumberField("numberOfElements", rows);
+        generator.writeBooleanField("first", pageable.getPageNumber() == 0);
+        generator.writeBooleanField("empty", rows == 0);
+        generator.writeEndObject();
+        generator.flush();
+    }
+
+    private void start() throws IOException {
+        generator.writeStartObject();
+        generator.writeArrayFieldStart("content");
+    }
+}
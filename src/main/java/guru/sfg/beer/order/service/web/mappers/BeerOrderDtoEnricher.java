@@ -0,0 +1,133 @@
+package guru.sfg.beer.order.service.web.mappers;
+
+import guru.sfg.beer.order.service.services.beer.BeerCatalog;
+import guru.sfg.beer.order.service.services.beer.BeerService;
+import guru.sfg.brewery.model.BeerDto;
+import guru.sfg.brewery.model.BeerOrderDto;
+import guru.sfg.brewery.model.BeerOrderLineDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * Resolves beers by UPC for order lines: when an order is placed, to store the beer details on its lines, and on
+ * reads, for lines stored without them. With {@code sfg.brewery.order-enrichment.refresh=true} reads replace the
+ * stored details on every line with the beer service's current ones instead.
+ * <p>
+ * Beers not in the {@link BeerCatalog} are looked up for the whole list at once: with one bulk call, or, with
+ * {@code bulk-lookup=false}, with one call per UPC, all in flight together. Either way the remote lookups are given
+ * {@code deadline} in total. Lines whose beer hasn't arrived by then, or whose lookup failed, are left without beer
+ * details rather than failing the request.
+ */
+@Slf4j
+@ConfigurationProperties(prefix = "sfg.brewery.order-enrichment")
+@Component
+public class BeerOrderDtoEnricher {
+
+    private final BeerCatalog beerCatalog;
+    private final BeerService beerService;
+    private final Counter     incomplete;
+
+    @Setter
+    private boolean bulkLookup = true;
+
+    @Setter
+    private Duration deadline = Duration.ofSeconds(2);
+
+    @Setter
+    private boolean refresh = false;
+
+    public BeerOrderDtoEnricher(BeerCatalog beerCatalog, BeerService beerService, MeterRegistry meterRegistry) {
+        this.beerCatalog = beerCatalog;
+        this.beerService = beerService;
+        this.incomplete = meterRegistry.counter("sfg.brewery.order.enrichment.incomplete");
+    }
+
+    public BeerOrderDto enrich(BeerOrderDto beerOrder) {
+        return enrich(List.of(beerOrder)).get(0);
+    }
+
+    public List<BeerOrderDto> enrich(List<BeerOrderDto> beerOrders) {
+        List<BeerOrderLineDto> lines = beerOrders.stream()
+                .flatMap(order -> order.getBeerOrderLines().stream())
+                .filter(line -> refresh || line.getBeerName() == null)
+                .collect(Collectors.toList());
+        if (lines.isEmpty()) {
+            return beerOrders;
+        }
+
+        Map<String, BeerDto> beers = findBeers(lines.stream()
+                                                       .map(BeerOrderLineDto::getUpc)
+                                                       .collect(Collectors.toSet()));
+        lines.forEach(line -> {
+            BeerDto beerDto = beers.get(line.getUpc());
+            if (beerDto != null) {
+                line.setBeerId(beerDto.getId());
+                line.setBeerName(beerDto.getBeerName());
+                line.setBeerStyle(beerDto.getBeerStyle());
+                line.setBeerPrice(beerDto.getPrice());
+            }
+        });
+        return beerOrders;
+    }
+
+    /**
+     * @return the beers found, by UPC; UPCs not found or not resolved within the deadline are left out.
+     */
+    public Map<String, BeerDto> findBeers(Collection<String> upcs) {
+        Set<String> remaining = upcs.stream().filter(Objects::nonNull).collect(Collectors.toSet());
+        Map<String, BeerDto> beers = new HashMap<>();
+        remaining.forEach(upc -> beerCatalog.findByUpc(upc).ifPresent(beer -> beers.put(upc, beer)));
+        remaining.removeAll(beers.keySet());
+        if (!remaining.isEmpty()) {
+            beers.putAll(lookUp(remaining));
+        }
+        return beers;
+    }
+
+    private Map<String, BeerDto> lookUp(Set<String> upcs) {
+        List<CompletableFuture<Map<String, BeerDto>>> lookups = bulkLookup
+                ? List.of(beerService.getBeersByUpcsAsync(upcs))
+                : upcs.stream()
+                        .map(upc -> beerService.getBeerByUpcAsync(upc)
+                                .thenApply(beer -> beer.map(b -> Map.of(upc, b)).orElse(Map.of())))
+                        .collect(Collectors.toList());
+
+        try {
+            CompletableFuture.allOf(lookups.toArray(CompletableFuture[]::new))
+                    .get(deadline.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            log.warn("Beer lookups still running after the " + deadline + " deadline, returning partial beer details");
+            incomplete.increment();
+        } catch (ExecutionException e) {
+            log.warn("Beer lookup failed, returning partial beer details", e.getCause());
+            incomplete.increment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            incomplete.increment();
+        }
+
+        // Lookups still running after the deadline carry on and fill the beer cache for the next request.
+        Map<String, BeerDto> beers = new HashMap<>();
+        lookups.stream()
+                .filter(lookup -> lookup.isDone() && !lookup.isCompletedExceptionally())
+                .forEach(lookup -> beers.putAll(lookup.join()));
+        return beers;
+    }
+}
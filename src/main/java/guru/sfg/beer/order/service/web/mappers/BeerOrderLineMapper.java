@@ -2,13 +2,24 @@ package guru.sfg.beer.order.service.web.mappers;
 
 import guru.sfg.beer.order.service.domain.BeerOrderLine;
 import guru.sfg.brewery.model.BeerOrderLineDto;
-import org.mapstruct.DecoratedWith;
 import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
+import org.mapstruct.Named;
 
 @Mapper(uses = {DateMapper.class})
-@DecoratedWith(BeerOrderLineMapperDecorator.class)
 public interface BeerOrderLineMapper {
+    String SAGA = "saga";
+
     BeerOrderLineDto beerOrderLineToDto(BeerOrderLine line);
 
+    /**
+     * Leaves out the stored beer details, which the inventory and validation services don't use.
+     */
+    @Named(SAGA)
+    @Mapping(target = "beerName", ignore = true)
+    @Mapping(target = "beerStyle", ignore = true)
+    @Mapping(target = "beerPrice", ignore = true)
+    BeerOrderLineDto beerOrderLineToSagaDto(BeerOrderLine line);
+
     BeerOrderLine dtoToBeerOrderLine(BeerOrderLineDto dto);
 }
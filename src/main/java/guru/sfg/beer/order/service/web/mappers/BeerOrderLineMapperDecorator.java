@@ -1,39 +0,0 @@
-package guru.sfg.beer.order.service.web.mappers;
-
-import guru.sfg.beer.order.service.domain.BeerOrderLine;
-import guru.sfg.beer.order.service.services.beer.BeerService;
-import guru.sfg.brewery.model.BeerDto;
-import guru.sfg.brewery.model.BeerOrderLineDto;
-import org.springframework.beans.factory.annotation.Autowired;
-
-import java.util.Optional;
-
-
-public class BeerOrderLineMapperDecorator implements BeerOrderLineMapper {
-
-    @Autowired
-    private BeerService beerService;
-
-    @Autowired
-    private BeerOrderLineMapper beerOrderLineMapper;
-
-    @Override
-    public BeerOrderLineDto beerOrderLineToDto(BeerOrderLine line) {
-        BeerOrderLineDto orderLineDto = beerOrderLineMapper.beerOrderLineToDto(line);
-        Optional<BeerDto> beerDtoOptional = beerService.getBeerByUpc(line.getUpc());
-
-        beerDtoOptional.ifPresent(beerDto -> {
-            orderLineDto.setBeerId(beerDto.getId());
-            orderLineDto.setBeerName(beerDto.getBeerName());
-            orderLineDto.setBeerStyle(beerDto.getBeerStyle());
-            orderLineDto.setBeerPrice(beerDto.getPrice());
-        });
-
-        return orderLineDto;
-    }
-
-    @Override
-    public BeerOrderLine dtoToBeerOrderLine(BeerOrderLineDto dto) {
-        return beerOrderLineMapper.dtoToBeerOrderLine(dto);
-    }
-}
@@ -28,5 +28,12 @@ public interface BeerOrderMapper {
     @Mapping(target = "customerId", source = "customer.id")
     BeerOrderDto beerOrderToDto(BeerOrder beerOrder);
 
+    /**
+     * For saga messages: lines carry ids, UPC, beer id and quantities but no beer details.
+     */
+    @Mapping(target = "customerId", source = "customer.id")
+    @Mapping(target = "beerOrderLines", qualifiedByName = BeerOrderLineMapper.SAGA)
+    BeerOrderDto beerOrderToSagaDto(BeerOrder beerOrder);
+
     BeerOrder dtoToBeerOrder(BeerOrderDto dto);
 }
@@ -0,0 +1,22 @@
+package guru.sfg.brewery.model.events;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A batch of {@link AllocateOrderRequest} messages.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class AllocateOrdersRequest implements Serializable {
+    private static final long serialVersionUID = 8695309424794727221L;
+
+    private List<AllocateOrderRequest> requests;
+}
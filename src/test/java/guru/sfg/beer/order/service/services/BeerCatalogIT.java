@@ -0,0 +1,179 @@
+package guru.sfg.beer.order.service.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.jenspiegsa.wiremockextension.WireMockExtension;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import guru.sfg.beer.order.service.services.beer.BeerCatalog;
+import guru.sfg.brewery.model.BeerDto;
+import guru.sfg.brewery.model.BeerPagedList;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.TestPropertySource;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.jenspiegsa.wiremockextension.ManagedWireMockServer.with;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.okJson;
+import static com.github.tomakehurst.wiremock.client.WireMock.serverError;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Catalog syncs against a beer service serving the catalog {@link #PAGE_SIZE} beers at a time. Syncs are run
+ * directly rather than on startup or on the schedule.
+ */
+@ExtendWith(WireMockExtension.class)
+@SpringBootTest
+@TestPropertySource(properties = {
+        "app.scheduling.enable=false",
+        "sfg.brewery.beer-service-host=http://localhost:8089",
+        "sfg.brewery.beer-catalog.page-size=2"
+})
+public class BeerCatalogIT {
+    private static final String BEER_LIST_PATH = "/api/v1/beer";
+    private static final int    PAGE_SIZE      = 2;
+
+    @Autowired
+    BeerCatalog beerCatalog;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    WireMockServer wireMockServer;
+
+    @TestConfiguration
+    static class RestTemplateBuilderProvider {
+        @Bean(destroyMethod = "stop")
+        public WireMockServer wireMockServer() {
+            WireMockServer server = with(wireMockConfig().port(8089));
+            server.start();
+            return server;
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        wireMockServer.resetAll();
+    }
+
+    @Test
+    void testSyncPagesThroughTheCatalogAndCountsChanges() throws Exception {
+        List<BeerDto> beers = beers(5);
+        stubCatalog(beers);
+
+        beerCatalog.sync();
+
+        wireMockServer.verify(3, getRequestedFor(urlPathEqualTo(BEER_LIST_PATH)));
+        beers.forEach(beer -> {
+            assertThat(beerCatalog.findByUpc(beer.getUpc())).contains(beer);
+            assertThat(beerCatalog.findById(beer.getId())).contains(beer);
+        });
+        assertThat(size()).isEqualTo(5);
+
+        // The same catalog again: nothing changed, but the snapshot counts as fresh.
+        Thread.sleep(100);
+        assertThat(age()).isGreaterThanOrEqualTo(100);
+        double changes = changes();
+        beerCatalog.sync();
+        assertThat(changes()).isEqualTo(changes);
+        assertThat(age()).isLessThan(100);
+
+        // One beer repriced and one gone.
+        List<BeerDto> latest = new ArrayList<>(beers.subList(0, 4));
+        BeerDto before = latest.get(1);
+        BeerDto repriced = new BeerDto(before.getId(), before.getBeerName(), before.getBeerStyle(), before.getUpc(),
+                                       new BigDecimal("4.50"));
+        latest.set(1, repriced);
+        wireMockServer.resetAll();
+        stubCatalog(latest);
+
+        beerCatalog.sync();
+
+        assertThat(changes()).isEqualTo(changes + 2);
+        assertThat(beerCatalog.findByUpc(repriced.getUpc())).contains(repriced);
+        assertThat(beerCatalog.findByUpc(beers.get(4).getUpc())).isEmpty();
+        assertThat(beerCatalog.findById(beers.get(4).getId())).isEmpty();
+        assertThat(size()).isEqualTo(4);
+    }
+
+    @Test
+    void testFailedSyncKeepsThePreviousSnapshot() throws Exception {
+        List<BeerDto> beers = beers(3);
+        stubCatalog(beers);
+        beerCatalog.sync();
+        Thread.sleep(100);
+
+        // The first page still loads; the second fails.
+        wireMockServer.resetAll();
+        stubCatalog(beers(3));
+        wireMockServer.stubFor(get(urlPathEqualTo(BEER_LIST_PATH)).withQueryParam("pageNumber", equalTo("1"))
+                                       .atPriority(1)
+                                       .willReturn(serverError()));
+        double changes = changes();
+
+        beerCatalog.sync();
+
+        beers.forEach(beer -> assertThat(beerCatalog.findByUpc(beer.getUpc())).contains(beer));
+        assertThat(size()).isEqualTo(3);
+        assertThat(changes()).isEqualTo(changes);
+        assertThat(age()).isGreaterThanOrEqualTo(100);
+    }
+
+    private void stubCatalog(List<BeerDto> beers) throws JsonProcessingException {
+        int pages = (beers.size() + PAGE_SIZE - 1) / PAGE_SIZE;
+        for (int page = 0; page < pages; page++) {
+            List<BeerDto> content = beers.subList(page * PAGE_SIZE, Math.min(beers.size(), (page + 1) * PAGE_SIZE));
+            BeerPagedList pagedList = new BeerPagedList(content, PageRequest.of(page, PAGE_SIZE), beers.size());
+            wireMockServer.stubFor(get(urlPathEqualTo(BEER_LIST_PATH))
+                                           .withQueryParam("pageNumber", equalTo(String.valueOf(page)))
+                                           .withQueryParam("pageSize", equalTo(String.valueOf(PAGE_SIZE)))
+                                           .willReturn(okJson(objectMapper.writeValueAsString(pagedList))));
+        }
+    }
+
+    private static List<BeerDto> beers(int count) {
+        List<BeerDto> beers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            beers.add(BeerDto.builder()
+                              .id(UUID.randomUUID())
+                              .upc(UUID.randomUUID().toString())
+                              .beerName("Catalog Beer " + i)
+                              .beerStyle("IPA")
+                              .price(new BigDecimal("3.99"))
+                              .build());
+        }
+        return beers;
+    }
+
+    private double size() {
+        return meterRegistry.get("sfg.brewery.beer.catalog.size").gauge().value();
+    }
+
+    private double age() {
+        return meterRegistry.get("sfg.brewery.beer.catalog.age").timeGauge().value(TimeUnit.MILLISECONDS);
+    }
+
+    private double changes() {
+        return meterRegistry.get("sfg.brewery.beer.catalog.changes").counter().count();
+    }
+}
@@ -0,0 +1,128 @@
+package guru.sfg.beer.order.service.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.jenspiegsa.wiremockextension.WireMockExtension;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import guru.sfg.beer.order.service.services.beer.BeerService;
+import guru.sfg.beer.order.service.services.beer.BeerServiceImpl;
+import guru.sfg.brewery.model.BeerDto;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.net.SocketTimeoutException;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static com.github.jenspiegsa.wiremockextension.ManagedWireMockServer.with;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.okJson;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+
+/**
+ * Beer service calls through a connection pool of one connection per route, with short read and pool wait timeouts.
+ */
+@ExtendWith(WireMockExtension.class)
+@SpringBootTest
+@TestPropertySource(properties = {
+        "app.scheduling.enable=false",
+        "sfg.brewery.beer-service-host=http://localhost:8090",
+        "sfg.brewery.beer-client.max-connections=7",
+        "sfg.brewery.beer-client.max-connections-per-route=1",
+        "sfg.brewery.beer-client.read-timeout=1s",
+        "sfg.brewery.beer-client.connection-request-timeout=200ms"
+})
+public class BeerClientIT {
+
+    @Autowired
+    BeerService beerService;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    WireMockServer wireMockServer;
+
+    @TestConfiguration
+    static class RestTemplateBuilderProvider {
+        @Bean(destroyMethod = "stop")
+        public WireMockServer wireMockServer() {
+            WireMockServer server = with(wireMockConfig().port(8090));
+            server.start();
+            return server;
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        wireMockServer.resetAll();
+    }
+
+    @Test
+    void testSlowResponseHitsTheReadTimeout() throws Exception {
+        String upc = stubBeer(3000);
+        double timedOut = requests("SocketTimeoutException");
+
+        long start = System.nanoTime();
+        assertThatThrownBy(() -> beerService.getBeerByUpc(upc))
+                .isInstanceOf(ResourceAccessException.class)
+                .hasRootCauseInstanceOf(SocketTimeoutException.class);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertThat(elapsedMillis).isBetween(1000L, 2500L);
+        assertThat(requests("SocketTimeoutException")).isEqualTo(timedOut + 1);
+    }
+
+    @Test
+    void testCallsWaitForAPooledConnection() throws Exception {
+        assertThat(meterRegistry.get("sfg.brewery.beer.client.connections").tag("state", "max").gauge().value())
+                .isEqualTo(7);
+
+        // The only connection to the beer service is held by a slow call...
+        CompletableFuture<Optional<BeerDto>> slow = beerService.getBeerByUpcAsync(stubBeer(800));
+        await().until(() -> meterRegistry.get("sfg.brewery.beer.client.connections").tag("state", "leased")
+                                    .gauge().value() == 1);
+
+        // ...so the next one gives up after the pool wait timeout.
+        String upc = stubBeer(0);
+        double poolTimeouts = requests("ConnectionPoolTimeoutException");
+        assertThatThrownBy(() -> beerService.getBeerByUpc(upc))
+                .isInstanceOf(ResourceAccessException.class)
+                .hasRootCauseInstanceOf(ConnectionPoolTimeoutException.class);
+        assertThat(requests("ConnectionPoolTimeoutException")).isEqualTo(poolTimeouts + 1);
+
+        assertThat(slow.get()).isPresent();
+        assertThat(beerService.getBeerByUpc(upc)).isPresent();
+    }
+
+    private String stubBeer(int delayMillis) throws Exception {
+        String upc = UUID.randomUUID().toString();
+        BeerDto beer = BeerDto.builder().id(UUID.randomUUID()).upc(upc).beerName("Pooled Pils").build();
+        wireMockServer.stubFor(get(urlPathEqualTo(BeerServiceImpl.BEER_UPC_PATH_V1 + upc))
+                                       .willReturn(okJson(objectMapper.writeValueAsString(beer))
+                                                           .withFixedDelay(delayMillis)));
+        return upc;
+    }
+
+    private double requests(String outcome) {
+        Timer timer = meterRegistry.find("sfg.brewery.beer.client.requests").tag("outcome", outcome).timer();
+        return timer == null ? 0 : timer.count();
+    }
+}
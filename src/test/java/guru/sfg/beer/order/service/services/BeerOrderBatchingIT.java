@@ -0,0 +1,248 @@
+package guru.sfg.beer.order.service.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.jenspiegsa.wiremockextension.WireMockExtension;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import guru.sfg.beer.order.service.config.JmsConfig;
+import guru.sfg.beer.order.service.domain.BeerOrder;
+import guru.sfg.beer.order.service.domain.BeerOrderLine;
+import guru.sfg.beer.order.service.domain.BeerOrderStatusEnum;
+import guru.sfg.beer.order.service.domain.Customer;
+import guru.sfg.beer.order.service.repositories.BeerOrderRepository;
+import guru.sfg.beer.order.service.repositories.CustomerRepository;
+import guru.sfg.beer.order.service.services.beer.BeerServiceImpl;
+import guru.sfg.beer.order.service.services.codec.NegotiatingMessageConverter;
+import guru.sfg.brewery.model.BeerDto;
+import guru.sfg.brewery.model.events.AllocateOrderResponse;
+import guru.sfg.brewery.model.events.ValidateOrderResponse;
+import guru.sfg.brewery.model.events.ValidateOrdersResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.test.context.TestPropertySource;
+
+import javax.jms.JMSException;
+import javax.jms.TextMessage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static com.github.jenspiegsa.wiremockextension.ManagedWireMockServer.with;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.okJson;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doThrow;
+
+/**
+ * Runs the saga with requests batched by the outbox relay, against test listeners that answer in batches, and with
+ * the responses consumed in transacted batches. Messages in both directions use the binary event codec.
+ */
+@ExtendWith(WireMockExtension.class)
+@SpringBootTest
+@TestPropertySource(properties = {
+        "app.scheduling.enable=false",
+        "sfg.brewery.beer-service-host=http://localhost:8084",
+        "sfg.brewery.outbox.batch-requests=true",
+        "sfg.brewery.outbox.batch-window=200ms",
+        "sfg.brewery.jms.codec=binary",
+        "sfg.brewery.response-batch.enabled=true",
+        "sfg.brewery.response-batch.receive-timeout=200ms",
+        "sfg.brewery.response-batch.max-attempts=3"
+})
+public class BeerOrderBatchingIT {
+    private static final String TEST_BEER_UPC = "12345";
+
+    @SpyBean
+    BeerOrderManager beerOrderManager;
+    @Autowired
+    BeerOrderRepository beerOrderRepository;
+    @Autowired
+    CustomerRepository customerRepository;
+    @Autowired
+    ObjectMapper objectMapper;
+    @Autowired
+    WireMockServer wireMockServer;
+    @Autowired
+    MeterRegistry meterRegistry;
+    @Autowired
+    JmsTemplate jmsTemplate;
+
+    @TestConfiguration
+    static class RestTemplateBuilderProvider {
+        @Bean(destroyMethod = "stop")
+        public WireMockServer wireMockServer() {
+            WireMockServer server = with(wireMockConfig().port(8084));
+            server.start();
+            return server;
+        }
+    }
+
+    @Test
+    void testBatchedOrdersReachAllocated() throws JsonProcessingException {
+        double fallbacks = meterRegistry.get("sfg.brewery.response.batch.fallbacks").counter().count();
+        UUID beerId = UUID.randomUUID();
+        BeerDto beerDto = BeerDto.builder().id(beerId).upc(TEST_BEER_UPC).build();
+        wireMockServer.stubFor(get(BeerServiceImpl.BEER_UPC_PATH_V1 + beerDto.getUpc()).willReturn(
+                okJson(objectMapper.writeValueAsString(beerDto))));
+
+        Customer customer = customerRepository.save(Customer.builder().customerName("Batch Customer").build());
+        List<UUID> orderIds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            BeerOrder beerOrder = BeerOrder.builder().customer(customer).build();
+            beerOrder.setBeerOrderLines(Set.of(BeerOrderLine.builder()
+                                                       .beerId(beerId)
+                                                       .upc(TEST_BEER_UPC)
+                                                       .orderQuantity(1)
+                                                       .beerOrder(beerOrder)
+                                                       .build()));
+            orderIds.add(beerOrderManager.newBeerOrder(beerOrder).getId());
+        }
+
+        await().untilAsserted(() -> orderIds.forEach(orderId -> assertEquals(
+                BeerOrderStatusEnum.ALLOCATED, beerOrderRepository.findById(orderId).get().getOrderStatus())));
+
+        assertThat(meterRegistry.get("sfg.brewery.outbox.batched.requests").summary().max()).isGreaterThan(1);
+        assertThat(meterRegistry.get("sfg.brewery.response.batch.size").summary().count()).isGreaterThan(0);
+        assertEquals(fallbacks, meterRegistry.get("sfg.brewery.response.batch.fallbacks").counter().count());
+    }
+
+    @Test
+    void testPoisonMessagesAreDeadLettered() throws JMSException {
+        double fallbacks = meterRegistry.get("sfg.brewery.response.batch.fallbacks").counter().count();
+        double deadLettered = meterRegistry.get("sfg.brewery.response.batch.dead.lettered").counter().count();
+        double redelivered = meterRegistry.get("sfg.brewery.response.batch.redelivered").counter().count();
+
+        // Readable, but fails both in its batch and on its own.
+        jmsTemplate.convertAndSend(JmsConfig.ALLOCATE_ORDER_RESPONSE_QUEUE, new AllocateOrderResponse(null, false, false));
+        // Can't be read at all.
+        jmsTemplate.send(JmsConfig.VALIDATE_ORDER_RESPONSE_QUEUE, session -> {
+            TextMessage message = session.createTextMessage("not an event");
+            message.setStringProperty(JmsConfig.CONTENT_TYPE_PROPERTY, NegotiatingMessageConverter.JSON_CONTENT_TYPE);
+            message.setStringProperty(JmsConfig.TYPE_ID_PROPERTY, ValidateOrderResponse.class.getName());
+            return message;
+        });
+
+        jmsTemplate.setReceiveTimeout(10_000);
+        try {
+            AllocateOrderResponse failed = (AllocateOrderResponse) jmsTemplate.receiveAndConvert(
+                    JmsConfig.ALLOCATE_ORDER_RESPONSE_QUEUE + JmsConfig.DEAD_LETTER_SUFFIX);
+            assertThat(failed).isNotNull();
+            assertThat(failed.getBeerOrderDto()).isNull();
+
+            TextMessage unreadable = (TextMessage) jmsTemplate.receive(
+                    JmsConfig.VALIDATE_ORDER_RESPONSE_QUEUE + JmsConfig.DEAD_LETTER_SUFFIX);
+            assertThat(unreadable).isNotNull();
+            assertThat(unreadable.getText()).isEqualTo("not an event");
+        } finally {
+            jmsTemplate.setReceiveTimeout(JmsTemplate.RECEIVE_TIMEOUT_INDEFINITE_WAIT);
+        }
+
+        assertThat(meterRegistry.get("sfg.brewery.response.batch.fallbacks").counter().count())
+                .isEqualTo(fallbacks + 1);
+        assertThat(meterRegistry.get("sfg.brewery.response.batch.dead.lettered").counter().count())
+                .isEqualTo(deadLettered + 2);
+        assertThat(meterRegistry.get("sfg.brewery.response.batch.redelivered").counter().count())
+                .isEqualTo(redelivered);
+        // Neither was left to be redelivered.
+        jmsTemplate.setReceiveTimeout(JmsTemplate.RECEIVE_TIMEOUT_NO_WAIT);
+        try {
+            assertThat(jmsTemplate.receive(JmsConfig.ALLOCATE_ORDER_RESPONSE_QUEUE)).isNull();
+            assertThat(jmsTemplate.receive(JmsConfig.VALIDATE_ORDER_RESPONSE_QUEUE)).isNull();
+        } finally {
+            jmsTemplate.setReceiveTimeout(JmsTemplate.RECEIVE_TIMEOUT_INDEFINITE_WAIT);
+        }
+    }
+
+    @Test
+    void testTransientFailureIsRedelivered() throws JsonProcessingException {
+        UUID orderId = newOrderPendingValidation();
+        double redelivered = meterRegistry.get("sfg.brewery.response.batch.redelivered").counter().count();
+        double deadLettered = meterRegistry.get("sfg.brewery.response.batch.dead.lettered").counter().count();
+
+        // The response's first attempt on its own times out on the order's lock; the second goes through.
+        doThrow(new CannotAcquireLockException("Lock wait timeout")).when(beerOrderManager)
+                .processValidationResults(anyList());
+        doThrow(new CannotAcquireLockException("Lock wait timeout")).doCallRealMethod()
+                .when(beerOrderManager).processValidationResult(orderId, true);
+        jmsTemplate.convertAndSend(JmsConfig.VALIDATE_ORDER_RESPONSE_QUEUE, new ValidateOrderResponse(orderId, true));
+
+        await().untilAsserted(() -> assertEquals(BeerOrderStatusEnum.ALLOCATION_PENDING,
+                                                 beerOrderRepository.findById(orderId).get().getOrderStatus()));
+        assertThat(meterRegistry.get("sfg.brewery.response.batch.redelivered").counter().count())
+                .isEqualTo(redelivered + 1);
+        assertThat(meterRegistry.get("sfg.brewery.response.batch.dead.lettered").counter().count())
+                .isEqualTo(deadLettered);
+    }
+
+    @Test
+    void testTransientFailureIsDeadLetteredOnceAttemptsRunOut() throws JsonProcessingException {
+        UUID orderId = newOrderPendingValidation();
+        double redelivered = meterRegistry.get("sfg.brewery.response.batch.redelivered").counter().count();
+        double deadLettered = meterRegistry.get("sfg.brewery.response.batch.dead.lettered").counter().count();
+
+        doThrow(new CannotAcquireLockException("Lock wait timeout")).when(beerOrderManager)
+                .processValidationResults(anyList());
+        doThrow(new CannotAcquireLockException("Lock wait timeout")).when(beerOrderManager)
+                .processValidationResult(orderId, true);
+        jmsTemplate.convertAndSend(JmsConfig.VALIDATE_ORDER_RESPONSE_BATCH_QUEUE,
+                                   new ValidateOrdersResponse(List.of(new ValidateOrderResponse(orderId, true))));
+
+        jmsTemplate.setReceiveTimeout(10_000);
+        try {
+            ValidateOrderResponse failed = (ValidateOrderResponse) jmsTemplate.receiveAndConvert(
+                    JmsConfig.VALIDATE_ORDER_RESPONSE_BATCH_QUEUE + JmsConfig.DEAD_LETTER_SUFFIX);
+            assertThat(failed).isNotNull();
+            assertThat(failed.getOrderId()).isEqualTo(orderId);
+        } finally {
+            jmsTemplate.setReceiveTimeout(JmsTemplate.RECEIVE_TIMEOUT_INDEFINITE_WAIT);
+        }
+
+        // Three deliveries: two rolled back, then dead-lettered.
+        assertThat(meterRegistry.get("sfg.brewery.response.batch.redelivered").counter().count())
+                .isEqualTo(redelivered + 2);
+        assertThat(meterRegistry.get("sfg.brewery.response.batch.dead.lettered").counter().count())
+                .isEqualTo(deadLettered + 1);
+        assertEquals(BeerOrderStatusEnum.VALIDATION_PENDING,
+                     beerOrderRepository.findById(orderId).get().getOrderStatus());
+    }
+
+    /**
+     * An order the test listeners won't answer, so its responses are sent by the test.
+     */
+    private UUID newOrderPendingValidation() throws JsonProcessingException {
+        UUID beerId = UUID.randomUUID();
+        BeerDto beerDto = BeerDto.builder().id(beerId).upc(TEST_BEER_UPC).build();
+        wireMockServer.stubFor(get(BeerServiceImpl.BEER_UPC_PATH_V1 + beerDto.getUpc()).willReturn(
+                okJson(objectMapper.writeValueAsString(beerDto))));
+
+        Customer customer = customerRepository.save(Customer.builder().customerName("Batch Customer").build());
+        BeerOrder beerOrder = BeerOrder.builder()
+                .customer(customer)
+                .customerRef(TestConstants.MANUAL_RESPONSES)
+                .build();
+        beerOrder.setBeerOrderLines(Set.of(BeerOrderLine.builder()
+                                                   .beerId(beerId)
+                                                   .upc(TEST_BEER_UPC)
+                                                   .orderQuantity(1)
+                                                   .beerOrder(beerOrder)
+                                                   .build()));
+        UUID orderId = beerOrderManager.newBeerOrder(beerOrder).getId();
+
+        await().untilAsserted(() -> assertEquals(BeerOrderStatusEnum.VALIDATION_PENDING,
+                                                 beerOrderRepository.findById(orderId).get().getOrderStatus()));
+        return orderId;
+    }
+}
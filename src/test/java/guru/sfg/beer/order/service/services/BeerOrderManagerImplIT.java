@@ -6,48 +6,89 @@ import com.github.jenspiegsa.wiremockextension.WireMockExtension;
 import com.github.tomakehurst.wiremock.WireMockServer;
 import guru.sfg.beer.order.service.config.JmsConfig;
 import guru.sfg.beer.order.service.domain.BeerOrder;
+import guru.sfg.beer.order.service.domain.BeerOrderEventEnum;
 import guru.sfg.beer.order.service.domain.BeerOrderLine;
 import guru.sfg.beer.order.service.domain.BeerOrderStatusEnum;
 import guru.sfg.beer.order.service.domain.Customer;
 import guru.sfg.beer.order.service.repositories.BeerOrderRepository;
 import guru.sfg.beer.order.service.repositories.CustomerRepository;
+import guru.sfg.beer.order.service.repositories.OutboxMessageRepository;
 import guru.sfg.beer.order.service.services.beer.BeerServiceImpl;
+import guru.sfg.beer.order.service.services.outbox.JmsOutbox;
+import guru.sfg.beer.order.service.services.testcomponents.SqlStatementCounter;
+import guru.sfg.beer.order.service.sm.BeerOrderTransitionEngine;
 import guru.sfg.brewery.model.BeerDto;
 import guru.sfg.brewery.model.BeerOrderDto;
+import guru.sfg.brewery.model.BeerOrderLineDto;
 import guru.sfg.brewery.model.events.AllocationFailureEvent;
 import guru.sfg.brewery.model.events.DeallocateOrderRequest;
+import guru.sfg.brewery.model.events.ValidateOrderRequest;
+import guru.sfg.brewery.model.events.ValidateOrderResponse;
+import guru.sfg.brewery.model.events.ValidateOrdersResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.activemq.artemis.jms.client.ActiveMQConnectionFactory;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.mock.mockito.SpyBean;
 import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jms.config.JmsListenerEndpointRegistry;
+import org.springframework.jms.connection.CachingConnectionFactory;
 import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.jms.ConnectionFactory;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 import static com.github.jenspiegsa.wiremockextension.ManagedWireMockServer.with;
 import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
 import static com.github.tomakehurst.wiremock.client.WireMock.okJson;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 import static org.awaitility.Awaitility.await;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 @ExtendWith(WireMockExtension.class)
 @SpringBootTest
 @Slf4j
-@TestPropertySource(properties = "app.scheduling.enable=false")
+@TestPropertySource(properties = {
+        "app.scheduling.enable=false",
+        "sfg.brewery.jms.listener.allocate.max-consumers=4",
+        "sfg.brewery.jms.listener.allocate.prefetch=0",
+        "sfg.brewery.jms.listener.virtual-threads=true",
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+        + "guru.sfg.beer.order.service.services.testcomponents.SqlStatementCounter"
+})
 public class BeerOrderManagerImplIT {
-    private static final String TEST_BEER_UPC = "12345";
+    private static final String TEST_BEER_UPC  = "12345";
+    private static final String STRIPE_THREADS = "order-events-";
 
-    @Autowired
+    @SpyBean
     BeerOrderManager beerOrderManager;
     @Autowired
     BeerOrderRepository beerOrderRepository;
@@ -63,6 +104,30 @@ public class BeerOrderManagerImplIT {
     @Autowired
     JmsTemplate jmsTemplate;
 
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Autowired
+    BeerOrderTransitionEngine beerOrderTransitionEngine;
+
+    @Autowired
+    OutboxMessageRepository outboxMessageRepository;
+
+    @SpyBean
+    JmsOutbox jmsOutbox;
+
+    @Autowired
+    JmsListenerEndpointRegistry jmsListenerEndpointRegistry;
+
+    @Autowired
+    ConnectionFactory connectionFactory;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
     Customer testCustomer;
 
 
@@ -80,6 +145,11 @@ public class BeerOrderManagerImplIT {
 
     @BeforeEach
     void setUp() {
+        doThrow(new IllegalStateException("Outbox unavailable")).when(jmsOutbox).convertAndSend(
+                eq(JmsConfig.VALIDATE_ORDER_QUEUE),
+                argThat(request -> request instanceof ValidateOrderRequest
+                                   && TestConstants.FAIL_VALIDATION_REQUEST.equals(
+                        ((ValidateOrderRequest) request).getBeerOrderDto().getCustomerRef())));
         testCustomer = customerRepository.save(Customer.builder()
                                                        .customerName("Test Customer")
                                                        .build());
@@ -107,6 +177,9 @@ public class BeerOrderManagerImplIT {
         savedBeerOrder.getBeerOrderLines().forEach(line -> {
             assertEquals(line.getOrderQuantity(), line.getQuantityAllocated());
         });
+
+        // Saga messages are built from the persisted order alone.
+        wireMockServer.verify(0, getRequestedFor(urlEqualTo(BeerServiceImpl.BEER_UPC_PATH_V1 + TEST_BEER_UPC)));
     }
 
     @Test
@@ -126,6 +199,23 @@ public class BeerOrderManagerImplIT {
         });
     }
 
+    @Test
+    void testFailedValidationRequest() throws JsonProcessingException {
+        BeerDto beerDto = BeerDto.builder().id(beerId).upc(TEST_BEER_UPC).build();
+        wireMockServer.stubFor(get(BeerServiceImpl.BEER_UPC_PATH_V1 + beerDto.getUpc()).willReturn(
+                okJson(objectMapper.writeValueAsString(beerDto))));
+
+        BeerOrder beerOrder = createBeerOrder();
+        beerOrder.setCustomerRef(TestConstants.FAIL_VALIDATION_REQUEST);
+        beerOrderManager.newBeerOrder(beerOrder);
+
+        // The order doesn't stay new when its validation request can't be written.
+        await().untilAsserted(() -> {
+            BeerOrder foundOrder = beerOrderRepository.findById(beerOrder.getId()).get();
+            assertEquals(BeerOrderStatusEnum.VALIDATION_EXCEPTION, foundOrder.getOrderStatus());
+        });
+    }
+
     @Test
     void testFailedAllocation() throws JsonProcessingException {
         BeerDto beerDto = BeerDto.builder().id(beerId).upc(TEST_BEER_UPC).build();
@@ -264,6 +354,194 @@ public class BeerOrderManagerImplIT {
         assertThat(beerOrderDto.getId()).isEqualTo(beerOrder.getId());
     }
 
+    @Test
+    void testEachResponseIsOneUnitOfWork() throws JsonProcessingException {
+        BeerDto beerDto = BeerDto.builder().id(beerId).upc(TEST_BEER_UPC).build();
+        wireMockServer.stubFor(get(BeerServiceImpl.BEER_UPC_PATH_V1 + beerDto.getUpc()).willReturn(
+                okJson(objectMapper.writeValueAsString(beerDto))));
+
+        BeerOrder beerOrder = createBeerOrder();
+        beerOrder.setCustomerRef(TestConstants.MANUAL_RESPONSES);
+        beerOrderManager.newBeerOrder(beerOrder);
+
+        await().untilAsserted(() -> {
+            BeerOrder foundOrder = beerOrderRepository.findById(beerOrder.getId()).get();
+            assertEquals(BeerOrderStatusEnum.VALIDATION_PENDING, foundOrder.getOrderStatus());
+        });
+
+        // Load the aggregate, then VALIDATION_PASSED and ALLOCATE_ORDER each update the status once, and
+        // ALLOCATE_ORDER writes its request to the outbox.
+        SqlStatementCounter.reset();
+        beerOrderManager.processValidationResult(beerOrder.getId(), true);
+        List<String> statements = SqlStatementCounter.statementsOn(STRIPE_THREADS);
+        assertEquals(4, statements.size(), statements.toString());
+        assertEquals(BeerOrderStatusEnum.ALLOCATION_PENDING,
+                     beerOrderRepository.findById(beerOrder.getId()).get().getOrderStatus());
+
+        BeerOrderDto allocated = BeerOrderDto.builder()
+                .id(beerOrder.getId())
+                .beerOrderLines(beerOrder.getBeerOrderLines().stream()
+                                        .map(line -> BeerOrderLineDto.builder()
+                                                .id(line.getId())
+                                                .quantityAllocated(line.getOrderQuantity())
+                                                .build())
+                                        .collect(Collectors.toList()))
+                .build();
+
+        // Load the aggregate, update the status, then one update per line.
+        SqlStatementCounter.reset();
+        beerOrderManager.processAllocateOrderResponse(allocated, false, false);
+        statements = SqlStatementCounter.statementsOn(STRIPE_THREADS);
+        assertEquals(3, statements.size(), statements.toString());
+
+        BeerOrder savedBeerOrder = beerOrderRepository.findById(beerOrder.getId()).get();
+        assertEquals(BeerOrderStatusEnum.ALLOCATED, savedBeerOrder.getOrderStatus());
+        savedBeerOrder.getBeerOrderLines().forEach(line -> {
+            assertEquals(line.getOrderQuantity(), line.getQuantityAllocated());
+        });
+    }
+
+    @Test
+    void testStaleResponseIsDropped() throws JsonProcessingException {
+        BeerDto beerDto = BeerDto.builder().id(beerId).upc(TEST_BEER_UPC).build();
+        wireMockServer.stubFor(get(BeerServiceImpl.BEER_UPC_PATH_V1 + beerDto.getUpc()).willReturn(
+                okJson(objectMapper.writeValueAsString(beerDto))));
+
+        BeerOrder beerOrder = createBeerOrder();
+        beerOrder.setCustomerRef(TestConstants.MANUAL_RESPONSES);
+        beerOrderManager.newBeerOrder(beerOrder);
+
+        await().untilAsserted(() -> {
+            BeerOrder foundOrder = beerOrderRepository.findById(beerOrder.getId()).get();
+            assertEquals(BeerOrderStatusEnum.VALIDATION_PENDING, foundOrder.getOrderStatus());
+        });
+        beerOrderManager.cancelBeerOrder(beerOrder.getId());
+        double dropped = droppedValidationResults();
+
+        // A validation response arriving after the cancellation is dropped without holding up the stripe.
+        long start = System.nanoTime();
+        beerOrderManager.processValidationResult(beerOrder.getId(), true);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(elapsedMillis < 1000, "Took " + elapsedMillis + "ms");
+        assertEquals(dropped + 1, droppedValidationResults());
+
+        assertEquals(BeerOrderStatusEnum.CANCELLED,
+                     beerOrderRepository.findById(beerOrder.getId()).get().getOrderStatus());
+    }
+
+    @Test
+    void testFailedResponseInABatchIsRequeued() throws JsonProcessingException {
+        BeerDto beerDto = BeerDto.builder().id(beerId).upc(TEST_BEER_UPC).build();
+        wireMockServer.stubFor(get(BeerServiceImpl.BEER_UPC_PATH_V1 + beerDto.getUpc()).willReturn(
+                okJson(objectMapper.writeValueAsString(beerDto))));
+
+        BeerOrder failing = createBeerOrder();
+        failing.setCustomerRef(TestConstants.MANUAL_RESPONSES);
+        beerOrderManager.newBeerOrder(failing);
+        BeerOrder other = createBeerOrder();
+        other.setCustomerRef(TestConstants.MANUAL_RESPONSES);
+        beerOrderManager.newBeerOrder(other);
+
+        await().untilAsserted(() -> {
+            assertEquals(BeerOrderStatusEnum.VALIDATION_PENDING,
+                         beerOrderRepository.findById(failing.getId()).get().getOrderStatus());
+            assertEquals(BeerOrderStatusEnum.VALIDATION_PENDING,
+                         beerOrderRepository.findById(other.getId()).get().getOrderStatus());
+        });
+
+        // The first attempt at one of the responses fails; the other one still goes through with the batch.
+        doThrow(new IllegalStateException("Database unavailable")).doCallRealMethod()
+                .when(beerOrderManager).processValidationResult(failing.getId(), true);
+        double requeued = meterRegistry.counter("sfg.brewery.response.batch.requeued").count();
+
+        jmsTemplate.convertAndSend(JmsConfig.VALIDATE_ORDER_RESPONSE_BATCH_QUEUE, new ValidateOrdersResponse(
+                List.of(new ValidateOrderResponse(failing.getId(), true),
+                        new ValidateOrderResponse(other.getId(), true))));
+
+        await().untilAsserted(() -> {
+            assertEquals(BeerOrderStatusEnum.ALLOCATION_PENDING,
+                         beerOrderRepository.findById(failing.getId()).get().getOrderStatus());
+            assertEquals(BeerOrderStatusEnum.ALLOCATION_PENDING,
+                         beerOrderRepository.findById(other.getId()).get().getOrderStatus());
+        });
+        verify(beerOrderManager, times(2)).processValidationResult(failing.getId(), true);
+        verify(beerOrderManager, times(1)).processValidationResult(other.getId(), true);
+        assertEquals(requeued + 1, meterRegistry.counter("sfg.brewery.response.batch.requeued").count());
+    }
+
+    @Test
+    void testListenerSettingsAreApplied() {
+        DefaultMessageListenerContainer allocate = listenerContainer(JmsConfig.ALLOCATE_ORDER_RESPONSE_QUEUE);
+        assertEquals(4, allocate.getMaxConcurrentConsumers());
+        CachingConnectionFactory prefetched = (CachingConnectionFactory) allocate.getConnectionFactory();
+        assertEquals(0, ((ActiveMQConnectionFactory) prefetched.getTargetConnectionFactory()).getConsumerWindowSize());
+
+        // Listeners without a prefetch of their own share the main factory.
+        DefaultMessageListenerContainer validate = listenerContainer(JmsConfig.VALIDATE_ORDER_RESPONSE_QUEUE);
+        assertEquals(1, validate.getMaxConcurrentConsumers());
+        assertThat(validate.getConnectionFactory()).isSameAs(connectionFactory);
+    }
+
+    @Test
+    void testLostStatusUpdateLeavesNoOutboxMessage() throws JsonProcessingException {
+        BeerDto beerDto = BeerDto.builder().id(beerId).upc(TEST_BEER_UPC).build();
+        wireMockServer.stubFor(get(BeerServiceImpl.BEER_UPC_PATH_V1 + beerDto.getUpc()).willReturn(
+                okJson(objectMapper.writeValueAsString(beerDto))));
+
+        BeerOrder beerOrder = createBeerOrder();
+        beerOrderManager.newBeerOrder(beerOrder);
+
+        await().untilAsserted(() -> {
+            BeerOrder foundOrder = beerOrderRepository.findById(beerOrder.getId()).get();
+            assertEquals(BeerOrderStatusEnum.ALLOCATED, foundOrder.getOrderStatus());
+        });
+
+        // Another instance changes the order after this one has loaded it.
+        BeerOrder stale = beerOrderRepository.findAggregateById(beerOrder.getId()).get();
+        jdbcTemplate.update("update beer_order set version = version + 1 where id = ?", beerOrder.getId().toString());
+
+        // Cancelling an allocated order writes a deallocation request to the outbox before its status update loses.
+        Message<BeerOrderEventEnum> cancel = MessageBuilder.withPayload(BeerOrderEventEnum.CANCEL_ORDER)
+                .setHeader(BeerOrderManagerImpl.ORDER_ID_HEADER, stale.getId())
+                .setHeader(BeerOrderManagerImpl.ORDER_VERSION_HEADER, stale.getVersion())
+                .setHeader(BeerOrderManagerImpl.ORDER_HEADER, stale)
+                .build();
+        assertThrows(ObjectOptimisticLockingFailureException.class, () -> transactionTemplate.executeWithoutResult(
+                status -> beerOrderTransitionEngine.sendEvent(stale.getOrderStatus(), cancel)));
+
+        assertEquals(BeerOrderStatusEnum.ALLOCATED,
+                     beerOrderRepository.findById(beerOrder.getId()).get().getOrderStatus());
+        assertThat(outboxMessageRepository.findAll().stream()
+                           .filter(message -> message.getPayload().contains(beerOrder.getId().toString()))
+                           .count()).isZero();
+        jmsTemplate.setReceiveTimeout(1000);
+        try {
+            Object deallocation;
+            while ((deallocation = jmsTemplate.receiveAndConvert(JmsConfig.DEALLOCATE_ORDER_QUEUE)) != null) {
+                assertThat(((DeallocateOrderRequest) deallocation).getBeerOrderDto().getId())
+                        .isNotEqualTo(beerOrder.getId());
+            }
+        } finally {
+            jmsTemplate.setReceiveTimeout(JmsTemplate.RECEIVE_TIMEOUT_INDEFINITE_WAIT);
+        }
+    }
+
+    DefaultMessageListenerContainer listenerContainer(String queue) {
+        return jmsListenerEndpointRegistry.getListenerContainers().stream()
+                .map(DefaultMessageListenerContainer.class::cast)
+                .filter(container -> queue.equals(container.getDestinationName()))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    private double droppedValidationResults() {
+        Counter counter = meterRegistry.find(BeerOrderManagerImpl.DROPPED_EVENTS)
+                .tags("expected", BeerOrderStatusEnum.VALIDATION_PENDING.name(),
+                      "status", BeerOrderStatusEnum.CANCELLED.name())
+                .counter();
+        return counter == null ? 0 : counter.count();
+    }
+
     BeerOrder createBeerOrder() {
         BeerOrder beerOrder = BeerOrder.builder()
                 .customer(testCustomer)
@@ -0,0 +1,337 @@
+package guru.sfg.beer.order.service.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.jenspiegsa.wiremockextension.WireMockExtension;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import guru.sfg.beer.order.service.domain.BeerOrder;
+import guru.sfg.beer.order.service.domain.BeerOrderLine;
+import guru.sfg.beer.order.service.domain.BeerOrderStatusEnum;
+import guru.sfg.beer.order.service.domain.Customer;
+import guru.sfg.beer.order.service.repositories.BeerOrderRepository;
+import guru.sfg.beer.order.service.repositories.CustomerRepository;
+import guru.sfg.beer.order.service.services.beer.BeerService;
+import guru.sfg.beer.order.service.services.beer.BeerServiceImpl;
+import guru.sfg.beer.order.service.services.testcomponents.SqlStatementCounter;
+import guru.sfg.beer.order.service.web.mappers.BeerOrderDtoEnricher;
+import guru.sfg.brewery.model.BeerDto;
+import guru.sfg.brewery.model.BeerOrderDto;
+import guru.sfg.brewery.model.BeerOrderLineDto;
+import guru.sfg.brewery.model.BeerOrderPagedList;
+import guru.sfg.brewery.model.CursorPage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.github.jenspiegsa.wiremockextension.ManagedWireMockServer.with;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.notFound;
+import static com.github.tomakehurst.wiremock.client.WireMock.okJson;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathMatching;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+
+@ExtendWith(WireMockExtension.class)
+@SpringBootTest
+@TestPropertySource(properties = {
+        "app.scheduling.enable=false",
+        "sfg.brewery.beer-service-host=http://localhost:8085",
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+        + "guru.sfg.beer.order.service.services.testcomponents.SqlStatementCounter"
+})
+public class BeerOrderServiceImplIT {
+    private static final List<String> UPCS = List.of("0631234200036", "0631234300019", "0083783375213");
+    private static final int          MANY = 100_000;
+
+    @Autowired
+    BeerOrderService beerOrderService;
+    @Autowired
+    BeerOrderRepository beerOrderRepository;
+    @Autowired
+    CustomerRepository customerRepository;
+
+    @Autowired
+    BeerService beerService;
+
+    @SpyBean
+    BeerOrderDtoEnricher beerOrderDtoEnricher;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Autowired
+    WireMockServer wireMockServer;
+
+    @TestConfiguration
+    static class RestTemplateBuilderProvider {
+        @Bean(destroyMethod = "stop")
+        public WireMockServer wireMockServer() {
+            WireMockServer server = with(wireMockConfig().port(8085));
+            server.start();
+            return server;
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        wireMockServer.resetRequests();
+    }
+
+    @Test
+    void testListOrdersLooksUpBeersInOneCall() throws JsonProcessingException {
+        BeerDto[] beers = UPCS.stream()
+                .map(upc -> BeerDto.builder()
+                        .id(UUID.randomUUID())
+                        .upc(upc)
+                        .beerName("Beer " + upc)
+                        .price(new BigDecimal("9.99"))
+                        .build())
+                .toArray(BeerDto[]::new);
+        wireMockServer.stubFor(get(urlPathEqualTo(BeerServiceImpl.BEER_UPCS_PATH_V1))
+                                       .willReturn(okJson(objectMapper.writeValueAsString(beers))));
+
+        Customer customer = customerRepository.save(Customer.builder().customerName("Paging Customer").build());
+        for (int i = 0; i < 5; i++) {
+            beerOrderRepository.save(createBeerOrder(customer));
+        }
+
+        BeerOrderPagedList page = beerOrderService.listOrders(customer.getId(), PageRequest.of(0, 25));
+
+        assertThat(page.getContent()).hasSize(5);
+        page.getContent().forEach(order -> {
+            assertThat(order.getBeerOrderLines()).hasSize(UPCS.size());
+            order.getBeerOrderLines().forEach(line -> {
+                assertThat(line.getBeerName()).isEqualTo("Beer " + line.getUpc());
+                assertThat(line.getBeerPrice()).isEqualByComparingTo("9.99");
+            });
+        });
+        wireMockServer.verify(1, getRequestedFor(urlPathEqualTo(BeerServiceImpl.BEER_UPCS_PATH_V1)));
+        wireMockServer.verify(0, getRequestedFor(urlPathMatching(BeerServiceImpl.BEER_UPC_PATH_V1 + ".*")));
+    }
+
+    @Test
+    void testPlacedOrderKeepsBeerDetails() throws JsonProcessingException {
+        BeerDto beer = BeerDto.builder()
+                .id(UUID.randomUUID())
+                .upc("0083783375299")
+                .beerName("Snapshot Ale")
+                .beerStyle("ALE")
+                .price(new BigDecimal("12.95"))
+                .build();
+        wireMockServer.stubFor(get(urlPathEqualTo(BeerServiceImpl.BEER_UPCS_PATH_V1))
+                                       .willReturn(okJson(objectMapper.writeValueAsString(new BeerDto[]{beer}))));
+
+        Customer customer = customerRepository.save(Customer.builder().customerName("Snapshot Customer").build());
+        BeerOrderDto placed = beerOrderService.placeOrder(customer.getId(), BeerOrderDto.builder()
+                .beerOrderLines(List.of(BeerOrderLineDto.builder()
+                                                .upc(beer.getUpc())
+                                                .beerPrice(new BigDecimal("0.01"))
+                                                .orderQuantity(3)
+                                                .build()))
+                .build());
+        wireMockServer.resetRequests();
+
+        BeerOrderDto read = beerOrderService.getOrderById(customer.getId(), placed.getId());
+
+        BeerOrderLineDto line = read.getBeerOrderLines().get(0);
+        assertThat(line.getBeerId()).isEqualTo(beer.getId());
+        assertThat(line.getBeerName()).isEqualTo("Snapshot Ale");
+        assertThat(line.getBeerPrice()).isEqualByComparingTo("12.95");
+        wireMockServer.verify(0, getRequestedFor(urlPathMatching(".*")));
+    }
+
+    @Test
+    void testBeersAreResolvedBeforeTheOrderTransaction() throws JsonProcessingException {
+        BeerDto beer = BeerDto.builder().id(UUID.randomUUID()).upc("0083783375300").beerName("Outside Ale").build();
+        wireMockServer.stubFor(get(urlPathEqualTo(BeerServiceImpl.BEER_UPCS_PATH_V1))
+                                       .willReturn(okJson(objectMapper.writeValueAsString(new BeerDto[]{beer}))));
+        AtomicBoolean inTransaction = new AtomicBoolean(true);
+        doAnswer(invocation -> {
+            inTransaction.set(TransactionSynchronizationManager.isActualTransactionActive());
+            return invocation.callRealMethod();
+        }).when(beerOrderDtoEnricher).findBeers(any());
+
+        Customer customer = customerRepository.save(Customer.builder().customerName("Outside Customer").build());
+        BeerOrderDto placed = beerOrderService.placeOrder(customer.getId(), BeerOrderDto.builder()
+                .beerOrderLines(List.of(BeerOrderLineDto.builder().upc(beer.getUpc()).orderQuantity(1).build()))
+                .build());
+
+        assertThat(inTransaction).isFalse();
+        assertThat(beerOrderRepository.findById(placed.getId())).isPresent();
+        assertThat(placed.getBeerOrderLines().get(0).getBeerName()).isEqualTo("Outside Ale");
+    }
+
+    @Test
+    void testOrderWithAnUnknownBeerIsRejected() throws JsonProcessingException {
+        BeerDto beer = BeerDto.builder().id(UUID.randomUUID()).upc("0083783375301").beerName("Known Ale").build();
+        String unknownUpc = "0000000000405";
+        wireMockServer.stubFor(get(urlPathEqualTo(BeerServiceImpl.BEER_UPCS_PATH_V1))
+                                       .willReturn(okJson(objectMapper.writeValueAsString(new BeerDto[]{beer}))));
+
+        Customer customer = customerRepository.save(Customer.builder().customerName("Rejected Customer").build());
+        long orders = beerOrderRepository.count();
+        BeerOrderDto beerOrderDto = BeerOrderDto.builder()
+                .beerOrderLines(List.of(BeerOrderLineDto.builder().upc(beer.getUpc()).orderQuantity(1).build(),
+                                        BeerOrderLineDto.builder().upc(unknownUpc).orderQuantity(1).build()))
+                .build();
+
+        assertThatThrownBy(() -> beerOrderService.placeOrder(customer.getId(), beerOrderDto))
+                .isInstanceOfSatisfying(UnknownBeersException.class,
+                                        e -> assertThat(e.getUpcs()).containsExactly(unknownUpc));
+        assertThat(beerOrderRepository.count()).isEqualTo(orders);
+    }
+
+    @Test
+    void testUnknownUpcIsEmptyAndCached() {
+        String upc = "0000000000404";
+        wireMockServer.stubFor(get(urlPathEqualTo(BeerServiceImpl.BEER_UPC_PATH_V1 + upc)).willReturn(notFound()));
+
+        assertThat(beerService.getBeerByUpc(upc)).isEmpty();
+        assertThat(beerService.getBeerByUpc(upc)).isEmpty();
+
+        // The second lookup is answered by the not-found entry.
+        wireMockServer.verify(1, getRequestedFor(urlPathEqualTo(BeerServiceImpl.BEER_UPC_PATH_V1 + upc)));
+    }
+
+    @Test
+    void testListOrdersPagesOverIdsThenFetchesThePage() {
+        Customer customer = customerRepository.save(Customer.builder().customerName("Busy Customer").build());
+        insertOrders(customer, MANY);
+        try {
+            SqlStatementCounter.reset();
+            BeerOrderPagedList page = beerOrderService.listOrders(customer.getId(), PageRequest.of(1000, 25));
+            List<String> statements = SqlStatementCounter.statementsOn(Thread.currentThread().getName());
+
+            // The customer, a page of ids, the count, then the page's orders with their lines in one query.
+            assertThat(statements).hasSize(4);
+            assertThat(statements.get(1)).doesNotContain("beer_order_line").contains("limit");
+            assertThat(statements.get(2)).startsWith("select count(");
+            assertThat(statements.get(3)).contains("beer_order_line").contains(" in (").doesNotContain("limit");
+
+            assertThat(page.getTotalElements()).isEqualTo(MANY);
+            assertThat(page.getContent()).hasSize(25);
+            assertThat(page.getContent()).allSatisfy(order -> assertThat(order.getBeerOrderLines()).hasSize(2));
+            // Orders are numbered in creation order, which is the default sort.
+            assertThat(page.getContent().get(0).getCustomerRef()).isEqualTo("order-25000");
+            assertThat(page.getContent().get(24).getCustomerRef()).isEqualTo("order-25024");
+        } finally {
+            deleteOrders(customer);
+        }
+    }
+
+    @Test
+    void testCursorPagesWalkAllOrdersOnce() {
+        Customer customer = customerRepository.save(Customer.builder().customerName("Cursor Customer").build());
+        insertOrders(customer, 7);
+        try {
+            CursorPage<BeerOrderDto> first = beerOrderService.listOrders(customer.getId(), null, 3, true);
+            assertThat(first.getTotalElements()).isEqualTo(7);
+
+            List<String> refs = new ArrayList<>();
+            CursorPage<BeerOrderDto> page = first;
+            while (true) {
+                page.getContent().forEach(order -> refs.add(order.getCustomerRef()));
+                if (page.getNextCursor() == null) {
+                    break;
+                }
+                page = beerOrderService.listOrders(customer.getId(), PageCursor.decode(page.getNextCursor()), 3,
+                                                   false);
+                assertThat(page.getTotalElements()).isNull();
+            }
+
+            assertThat(refs).containsExactly("order-0", "order-1", "order-2", "order-3", "order-4", "order-5",
+                                             "order-6");
+        } finally {
+            deleteOrders(customer);
+        }
+    }
+
+    @Test
+    void testExportStreamsEveryOrderInCreationOrder() {
+        Customer customer = customerRepository.save(Customer.builder().customerName("Export Customer").build());
+        insertOrders(customer, 250);
+        try {
+            List<BeerOrderDto> exported = new ArrayList<>();
+            assertThat(beerOrderService.exportOrders(customer.getId(), exported::add)).isTrue();
+
+            assertThat(exported).hasSize(250);
+            assertThat(exported.get(0).getCustomerRef()).isEqualTo("order-0");
+            assertThat(exported.get(249).getCustomerRef()).isEqualTo("order-249");
+            assertThat(exported).allSatisfy(order -> assertThat(order.getBeerOrderLines()).hasSize(2));
+            wireMockServer.verify(0, getRequestedFor(urlPathMatching(".*")));
+        } finally {
+            deleteOrders(customer);
+        }
+        assertThat(beerOrderService.exportOrders(UUID.randomUUID(), order -> {})).isFalse();
+    }
+
+    /**
+     * Orders with two snapshotted lines each, written directly so that seeding stays fast.
+     */
+    private void insertOrders(Customer customer, int count) {
+        long start = System.currentTimeMillis() - count;
+        List<Object[]> orders = new ArrayList<>();
+        List<Object[]> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String orderId = UUID.randomUUID().toString();
+            Timestamp created = new Timestamp(start + i);
+            orders.add(new Object[]{orderId, created, created, "order-" + i, customer.getId().toString(),
+                                    BeerOrderStatusEnum.NEW.ordinal()});
+            for (String upc : UPCS.subList(0, 2)) {
+                lines.add(new Object[]{UUID.randomUUID().toString(), created, created, orderId, upc, "Beer " + upc});
+            }
+        }
+        jdbcTemplate.batchUpdate("insert into beer_order (id, version, created_date, last_modified_date, "
+                                 + "customer_ref, customer_id, order_status) values (?, 0, ?, ?, ?, ?, ?)", orders);
+        jdbcTemplate.batchUpdate("insert into beer_order_line (id, version, created_date, last_modified_date, "
+                                 + "beer_order_id, upc, beer_name, order_quantity, quantity_allocated) "
+                                 + "values (?, 0, ?, ?, ?, ?, ?, 1, 0)", lines);
+    }
+
+    private void deleteOrders(Customer customer) {
+        jdbcTemplate.update("delete from beer_order_line where beer_order_id in "
+                            + "(select id from beer_order where customer_id = ?)", customer.getId().toString());
+        jdbcTemplate.update("delete from beer_order where customer_id = ?", customer.getId().toString());
+    }
+
+    BeerOrder createBeerOrder(Customer customer) {
+        BeerOrder beerOrder = BeerOrder.builder()
+                .customer(customer)
+                .orderStatus(BeerOrderStatusEnum.NEW)
+                .build();
+        Set<BeerOrderLine> lines = new HashSet<>();
+        UPCS.forEach(upc -> lines.add(BeerOrderLine.builder()
+                                              .upc(upc)
+                                              .orderQuantity(2)
+                                              .beerOrder(beerOrder)
+                                              .build()));
+        beerOrder.setBeerOrderLines(lines);
+        return beerOrder;
+    }
+}
@@ -0,0 +1,105 @@
+package guru.sfg.beer.order.service.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.jenspiegsa.wiremockextension.WireMockExtension;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import guru.sfg.beer.order.service.services.beer.BeerService;
+import guru.sfg.beer.order.service.services.beer.BeerServiceImpl;
+import guru.sfg.brewery.model.BeerDto;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.UUID;
+
+import static com.github.jenspiegsa.wiremockextension.ManagedWireMockServer.with;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.okJson;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathMatching;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Beer lookups against two beer service instances, one of which answers only after {@link #SLOW_MILLIS}.
+ */
+@ExtendWith(WireMockExtension.class)
+@SpringBootTest
+@TestPropertySource(properties = {
+        "app.scheduling.enable=false",
+        "sfg.brewery.beer-service-hosts=http://localhost:8086,http://localhost:8087",
+        "sfg.brewery.beer-hedging.enabled=true",
+        "sfg.brewery.beer-hedging.max-delay=100ms"
+})
+public class BeerServiceHedgingIT {
+    private static final int SLOW_MILLIS = 2000;
+    private static final int LOOKUPS     = 20;
+
+    @Autowired
+    BeerService beerService;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    @Qualifier("slowBeerService")
+    WireMockServer slowBeerService;
+
+    @Autowired
+    @Qualifier("fastBeerService")
+    WireMockServer fastBeerService;
+
+    @TestConfiguration
+    static class RestTemplateBuilderProvider {
+        @Bean(destroyMethod = "stop")
+        public WireMockServer slowBeerService() {
+            WireMockServer server = with(wireMockConfig().port(8086));
+            server.start();
+            return server;
+        }
+
+        @Bean(destroyMethod = "stop")
+        public WireMockServer fastBeerService() {
+            WireMockServer server = with(wireMockConfig().port(8087));
+            server.start();
+            return server;
+        }
+    }
+
+    @Test
+    void testSlowInstanceIsHedgedAndThenAvoided() throws JsonProcessingException {
+        String beer = objectMapper.writeValueAsString(BeerDto.builder().id(UUID.randomUUID()).upc("0").build());
+        slowBeerService.stubFor(get(urlPathMatching(BeerServiceImpl.BEER_UPC_PATH_V1 + ".*"))
+                                        .willReturn(okJson(beer).withFixedDelay(SLOW_MILLIS)));
+        fastBeerService.stubFor(get(urlPathMatching(BeerServiceImpl.BEER_UPC_PATH_V1 + ".*"))
+                                        .willReturn(okJson(beer)));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            assertThat(beerService.getBeerByUpc("hedged-" + i)).isPresent();
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // Any lookup that went to the slow instance was answered by a hedge to the fast one.
+        assertThat(elapsedMillis).isLessThan(SLOW_MILLIS);
+
+        // Once it has kept a call waiting, the slow instance is no longer chosen first.
+        int slowRequests = slowBeerService.findAll(getRequestedFor(urlPathMatching(".*"))).size();
+        assertThat(slowRequests).isLessThanOrEqualTo(LOOKUPS / 4);
+        if (slowRequests > 0) {
+            assertThat(meterRegistry.counter("sfg.brewery.beer.client.hedges").count()).isPositive();
+        }
+        assertThat(fastBeerService.findAll(getRequestedFor(urlPathMatching(".*"))))
+                .hasSizeGreaterThanOrEqualTo(LOOKUPS);
+    }
+}
@@ -6,4 +6,6 @@ public class TestConstants {
     public static final String PARTIAL_ALLOCATION                 = "partial-allocation";
     public static final String CANCELLED_WHILE_PENDING_VALIDATION = "cancel-while-pending-validation";
     public static final String CANCELLED_WHILE_PENDING_ALLOCATION = "cancel-while-pending-allocation";
+    public static final String MANUAL_RESPONSES                   = "manual-responses";
+    public static final String FAIL_VALIDATION_REQUEST            = "fail-validation-request";
 }
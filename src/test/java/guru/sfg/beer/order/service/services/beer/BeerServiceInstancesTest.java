@@ -0,0 +1,46 @@
+package guru.sfg.beer.order.service.services.beer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BeerServiceInstancesTest {
+
+    private static final String FALLBACK = "http://localhost:8083";
+
+    @Test
+    void testFallsBackWhenNothingIsDiscovered() {
+        BeerServiceInstances instances = new BeerServiceInstances(List::of, FALLBACK);
+
+        assertEquals(FALLBACK, instances.choose(null));
+        assertEquals(FALLBACK, instances.choose("http://beer-1"));
+    }
+
+    @Test
+    void testAvoidsTheExcludedInstance() {
+        BeerServiceInstances instances = new BeerServiceInstances(
+                () -> List.of("http://beer-1", "http://beer-2", "http://beer-2"), FALLBACK);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals("http://beer-2", instances.choose("http://beer-1"));
+        }
+        // With nothing else to choose from, the excluded instance is better than none.
+        assertEquals("http://beer-1",
+                     new BeerServiceInstances(() -> List.of("http://beer-1"), FALLBACK).choose("http://beer-1"));
+    }
+
+    @Test
+    void testPrefersTheFasterInstance() {
+        BeerServiceInstances instances = new BeerServiceInstances(
+                () -> List.of("http://beer-1", "http://beer-2"), FALLBACK);
+        instances.started("http://beer-1");
+        instances.finished("http://beer-1", 1_000_000_000L);
+        instances.started("http://beer-2");
+        instances.finished("http://beer-2", 1_000_000L);
+
+        assertThat(instances.choose(null)).isEqualTo("http://beer-2");
+    }
+}
@@ -0,0 +1,166 @@
+package guru.sfg.beer.order.service.services.beer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LookupCacheTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<Runnable>      refreshes     = new ArrayList<>();
+    private final AtomicInteger       loads         = new AtomicInteger();
+
+    @Test
+    void testEntriesExpireAfterTheirTtl() throws InterruptedException {
+        LookupCache.Settings settings = settings();
+        settings.setTtl(Duration.ofMillis(200));
+        settings.setNotFoundTtl(Duration.ofMillis(50));
+        LookupCache<String, String> cache = cache(key -> Optional.of(key).filter(k -> !k.equals("missing")),
+                                                  settings);
+
+        assertThat(cache.get("found")).contains("found");
+        assertThat(cache.get("missing")).isEmpty();
+        assertEquals(2, loads.get());
+
+        Thread.sleep(100);
+        // Not-found results go first.
+        cache.get("found");
+        cache.get("missing");
+        assertEquals(3, loads.get());
+
+        Thread.sleep(150);
+        cache.get("found");
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    void testConcurrentGetsShareOneLoad() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        LookupCache<String, String> cache = cache(key -> {
+            awaitRelease(release);
+            return Optional.of(key.toUpperCase());
+        }, settings());
+
+        int callers = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<Optional<String>>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(executor.submit(() -> cache.get("ipa")));
+            }
+            await().until(() -> misses() == callers);
+            release.countDown();
+
+            for (Future<Optional<String>> result : results) {
+                assertThat(result.get()).contains("IPA");
+            }
+            assertEquals(1, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testFailedLoadIsNotCached() {
+        AtomicInteger failures = new AtomicInteger(1);
+        LookupCache<String, String> cache = cache(key -> {
+            if (failures.getAndDecrement() > 0) {
+                throw new IllegalStateException("Beer service unavailable");
+            }
+            return Optional.of(key);
+        }, settings());
+
+        assertThatThrownBy(() -> cache.get("stout")).isInstanceOf(IllegalStateException.class);
+        assertThat(cache.get("stout")).contains("stout");
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void testRefreshAheadServesTheStaleValue() throws InterruptedException {
+        AtomicInteger version = new AtomicInteger(1);
+        LookupCache.Settings settings = settings();
+        settings.setRefreshAfter(Duration.ofMillis(50));
+        LookupCache<String, String> cache = cache(key -> Optional.of(key + "-" + version.get()), settings);
+
+        assertThat(cache.get("lager")).contains("lager-1");
+        version.set(2);
+        Thread.sleep(100);
+
+        assertThat(cache.get("lager")).contains("lager-1");
+        assertThat(cache.get("lager")).contains("lager-1");
+        // One reload in the background, however many hits saw the entry was due.
+        assertThat(refreshes).hasSize(1);
+
+        refreshes.get(0).run();
+        assertThat(cache.get("lager")).contains("lager-2");
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void testEvictsTheOldestLoadsPastMaxSize() {
+        LookupCache.Settings settings = settings();
+        settings.setMaxSize(10);
+        LookupCache<Integer, Integer> cache = new LookupCache<>("test", this.<Integer, Integer>count(Optional::of),
+                                                                refreshes::add, settings, meterRegistry);
+
+        for (int i = 0; i < 11; i++) {
+            cache.get(i);
+        }
+        // Down to a tenth below the bound in one go.
+        assertEquals(9.0, meterRegistry.get("sfg.brewery.lookup.cache.size").gauge().value());
+        assertEquals(2.0, meterRegistry.get("sfg.brewery.lookup.cache.evictions").counter().count());
+
+        Map<Integer, Integer> values = cache.getAll(List.of(2, 10), keys -> Map.of());
+        assertThat(values).containsOnlyKeys(2, 10);
+        assertEquals(11, loads.get());
+        cache.get(0);
+        assertEquals(12, loads.get());
+    }
+
+    private LookupCache<String, String> cache(Function<String, Optional<String>> loader,
+                                              LookupCache.Settings settings) {
+        return new LookupCache<>("test", count(loader), refreshes::add, settings, meterRegistry);
+    }
+
+    private <K, V> Function<K, Optional<V>> count(Function<K, Optional<V>> loader) {
+        return key -> {
+            loads.incrementAndGet();
+            return loader.apply(key);
+        };
+    }
+
+    private double misses() {
+        return meterRegistry.get("sfg.brewery.lookup.cache.requests").tag("result", "miss").counter().count();
+    }
+
+    private static LookupCache.Settings settings() {
+        LookupCache.Settings settings = new LookupCache.Settings();
+        settings.setRefreshAfter(Duration.ofMinutes(1));
+        return settings;
+    }
+
+    private static void awaitRelease(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
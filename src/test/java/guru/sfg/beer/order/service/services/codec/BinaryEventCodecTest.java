@@ -0,0 +1,84 @@
+package guru.sfg.beer.order.service.services.codec;
+
+import guru.sfg.brewery.model.BeerOrderDto;
+import guru.sfg.brewery.model.BeerOrderLineDto;
+import guru.sfg.brewery.model.events.AllocateOrderResponse;
+import guru.sfg.brewery.model.events.AllocateOrdersRequest;
+import guru.sfg.brewery.model.events.ValidateOrderRequest;
+import guru.sfg.brewery.model.events.ValidateOrderResponse;
+import guru.sfg.brewery.model.events.ValidateOrdersRequest;
+import guru.sfg.brewery.model.events.ValidateOrdersResponse;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BinaryEventCodecTest {
+
+    @Test
+    void testOrderRoundTrip() {
+        AllocateOrderResponse event = AllocateOrderResponse.builder()
+                .beerOrderDto(BeerOrderDto.builder()
+                                      .id(UUID.randomUUID())
+                                      .version(2)
+                                      .createdDate(OffsetDateTime.of(2020, 5, 1, 12, 30, 0, 500, ZoneOffset.ofHours(2)))
+                                      .customerId(UUID.randomUUID())
+                                      .orderStatus("ALLOCATION_PENDING")
+                                      .beerOrderLines(List.of(BeerOrderLineDto.builder()
+                                                                      .id(UUID.randomUUID())
+                                                                      .upc("0631234200036")
+                                                                      .beerPrice(new BigDecimal("12.95"))
+                                                                      .orderQuantity(10)
+                                                                      .quantityAllocated(4)
+                                                                      .build()))
+                                      .build())
+                .allocationError(false)
+                .pendingInventory(true)
+                .build();
+
+        assertEquals(event, BinaryEventCodec.decode(BinaryEventCodec.encode(event)));
+    }
+
+    @Test
+    void testBatchRoundTrip() {
+        ValidateOrdersResponse batch = new ValidateOrdersResponse(List.of(
+                new ValidateOrderResponse(UUID.randomUUID(), true),
+                new ValidateOrderResponse(UUID.randomUUID(), false)));
+
+        assertEquals(batch, BinaryEventCodec.decode(BinaryEventCodec.encode(batch)));
+    }
+
+    @Test
+    void testCombinedBatchDecodes() {
+        ValidateOrderRequest first = new ValidateOrderRequest(BeerOrderDto.builder().id(UUID.randomUUID()).build());
+        ValidateOrderRequest second = new ValidateOrderRequest(BeerOrderDto.builder().id(UUID.randomUUID()).build());
+
+        byte[] batch = BinaryEventCodec.combine(ValidateOrdersRequest.class, List.of(BinaryEventCodec.encode(first),
+                                                                                      BinaryEventCodec.encode(second)));
+
+        assertEquals(new ValidateOrdersRequest(List.of(first, second)), BinaryEventCodec.decode(batch));
+        assertThrows(IllegalArgumentException.class, () -> BinaryEventCodec.combine(
+                AllocateOrdersRequest.class, List.of(BinaryEventCodec.encode(first))));
+    }
+
+    @Test
+    void testUnknownVersionRejected() {
+        byte[] body = BinaryEventCodec.encode(new ValidateOrderResponse(UUID.randomUUID(), true));
+        body[0] = BinaryEventCodec.VERSION + 1;
+
+        assertThrows(IllegalArgumentException.class, () -> BinaryEventCodec.decode(body));
+    }
+
+    @Test
+    void testOnlyEventsSupported() {
+        assertThat(BinaryEventCodec.supports(ValidateOrderResponse.class)).isTrue();
+        assertThat(BinaryEventCodec.supports(BeerOrderDto.class)).isFalse();
+    }
+}
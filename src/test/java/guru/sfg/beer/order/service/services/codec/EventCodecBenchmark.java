@@ -0,0 +1,110 @@
+package guru.sfg.beer.order.service.services.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import guru.sfg.brewery.model.BeerOrderDto;
+import guru.sfg.brewery.model.BeerOrderLineDto;
+import guru.sfg.brewery.model.events.AllocateOrderResponse;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode and decode cost of an {@link AllocateOrderResponse} as JSON (what the Jackson TEXT converter writes) and with
+ * {@link BinaryEventCodec}, for orders of 1, 10 and 1000 lines. The encoded sizes are printed at setup. Run
+ * {@link #main(String[])} from the test classpath.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EventCodecBenchmark {
+
+    @Param({"1", "10", "1000"})
+    private int lines;
+
+    private ObjectMapper          objectMapper;
+    private AllocateOrderResponse event;
+    private byte[]                json;
+    private byte[]                binary;
+
+    @Setup
+    public void setUp() throws IOException {
+        objectMapper = new ObjectMapper().findAndRegisterModules()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+        List<BeerOrderLineDto> orderLines = new ArrayList<>();
+        for (int i = 0; i < lines; i++) {
+            orderLines.add(BeerOrderLineDto.builder()
+                                   .id(UUID.randomUUID())
+                                   .version(1)
+                                   .createdDate(OffsetDateTime.now())
+                                   .lastModifiedDate(OffsetDateTime.now())
+                                   .upc("0631234200036")
+                                   .beerName("Mango Bobs")
+                                   .beerStyle("IPA")
+                                   .beerPrice(new BigDecimal("12.95"))
+                                   .beerId(UUID.randomUUID())
+                                   .orderQuantity(12)
+                                   .quantityAllocated(12)
+                                   .build());
+        }
+        event = AllocateOrderResponse.builder()
+                .beerOrderDto(BeerOrderDto.builder()
+                                      .id(UUID.randomUUID())
+                                      .version(3)
+                                      .createdDate(OffsetDateTime.now())
+                                      .lastModifiedDate(OffsetDateTime.now())
+                                      .customerId(UUID.randomUUID())
+                                      .customerRef("Order ref")
+                                      .orderStatus("ALLOCATION_PENDING")
+                                      .beerOrderLines(orderLines)
+                                      .build())
+                .allocationError(false)
+                .pendingInventory(false)
+                .build();
+
+        json = objectMapper.writeValueAsBytes(event);
+        binary = BinaryEventCodec.encode(event);
+        System.out.println(lines + " lines: JSON " + json.length + " bytes, binary " + binary.length + " bytes");
+    }
+
+    @Benchmark
+    public byte[] jsonEncode() throws IOException {
+        return objectMapper.writeValueAsBytes(event);
+    }
+
+    @Benchmark
+    public Object jsonDecode() throws IOException {
+        return objectMapper.readValue(json, AllocateOrderResponse.class);
+    }
+
+    @Benchmark
+    public byte[] binaryEncode() {
+        return BinaryEventCodec.encode(event);
+    }
+
+    @Benchmark
+    public Object binaryDecode() {
+        return BinaryEventCodec.decode(binary);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                           .include(EventCodecBenchmark.class.getSimpleName())
+                           .addProfiler(GCProfiler.class)
+                           .build()).run();
+    }
+}
@@ -0,0 +1,28 @@
+package guru.sfg.beer.order.service.services.codec;
+
+import guru.sfg.beer.order.service.config.JmsConfig;
+import guru.sfg.brewery.model.BeerOrderDto;
+import guru.sfg.brewery.model.events.AllocateOrderRequest;
+import guru.sfg.brewery.model.events.ValidateOrderRequest;
+import org.junit.jupiter.api.Test;
+import org.springframework.jms.support.converter.MappingJackson2MessageConverter;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NegotiatingMessageConverterTest {
+
+    @Test
+    void testCodecIsChosenPerDestination() {
+        NegotiatingMessageConverter converter = new NegotiatingMessageConverter(
+                new MappingJackson2MessageConverter(), JmsConfig.Codec.JSON,
+                Map.of(JmsConfig.VALIDATE_ORDER_QUEUE, JmsConfig.Codec.BINARY));
+
+        assertThat(converter.writesBinary(JmsConfig.VALIDATE_ORDER_QUEUE, ValidateOrderRequest.class)).isTrue();
+        assertThat(converter.writesBinary(JmsConfig.ALLOCATE_ORDER_QUEUE, AllocateOrderRequest.class)).isFalse();
+        assertThat(converter.writesBinary(null, ValidateOrderRequest.class)).isFalse();
+        // Only the saga events have a binary form.
+        assertThat(converter.writesBinary(JmsConfig.VALIDATE_ORDER_QUEUE, BeerOrderDto.class)).isFalse();
+    }
+}
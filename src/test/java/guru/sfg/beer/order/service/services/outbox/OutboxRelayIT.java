@@ -0,0 +1,155 @@
+package guru.sfg.beer.order.service.services.outbox;
+
+import guru.sfg.beer.order.service.domain.OutboxMessage;
+import guru.sfg.beer.order.service.repositories.OutboxMessageRepository;
+import guru.sfg.beer.order.service.services.codec.BinaryEventCodec;
+import guru.sfg.beer.order.service.services.codec.NegotiatingMessageConverter;
+import guru.sfg.brewery.model.BeerOrderDto;
+import guru.sfg.brewery.model.events.ValidateOrderRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.test.context.TestPropertySource;
+
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.MessageConsumer;
+import javax.jms.Message;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.when;
+
+@SpringBootTest
+@TestPropertySource(properties = "app.scheduling.enable=false")
+class OutboxRelayIT {
+
+    private static final String QUEUE = "outbox-relay-test";
+
+    @Autowired
+    OutboxMessageRepository outboxMessageRepository;
+
+    @Autowired
+    OutboxRelay outboxRelay;
+
+    @Autowired
+    ConnectionFactory connectionFactory;
+
+    @Autowired
+    NegotiatingMessageConverter messageConverter;
+
+    @Autowired
+    JmsTemplate jmsTemplate;
+
+    @AfterEach
+    void tearDown() {
+        // A single statement, so rows the relay is deleting at the same time don't fail the clean-up.
+        outboxMessageRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void testSendsOldestFirstAndDeletesWhatWasSent() {
+        for (int i = 0; i < 5; i++) {
+            save("message-" + i);
+        }
+
+        assertThat(receiveAfter(outboxRelay::wake, 5)).containsExactly("message-0", "message-1", "message-2", "message-3",
+                                                                      "message-4");
+        await().until(() -> outboxMessageRepository.count() == 0);
+    }
+
+    @Test
+    void testRetriesAfterAFailedSend() throws JMSException {
+        ConnectionFactory failingOnce = mock(ConnectionFactory.class);
+        when(failingOnce.createConnection())
+                .thenThrow(new JMSException("Broker unavailable"))
+                .thenAnswer(invocation -> connectionFactory.createConnection());
+        OutboxRelay relay = new OutboxRelay(outboxMessageRepository, failingOnce, new SimpleMeterRegistry());
+        try {
+            OutboxMessage message = save("retried");
+
+            relay.wake();
+            // The failed pass gives up its claim, leaving the message to be sent by the next one.
+            await().until(() -> mockingDetails(failingOnce).getInvocations().size() == 1
+                                 && outboxMessageRepository.findById(message.getId())
+                                         .filter(m -> m.getClaimedBy() == null)
+                                         .isPresent());
+
+            assertThat(receiveAfter(relay::wake, 1)).containsExactly("retried");
+            await().until(() -> outboxMessageRepository.findById(message.getId()).isEmpty());
+        } finally {
+            relay.shutdown();
+        }
+    }
+
+    @Test
+    void testLeavesMessagesClaimedByAnotherRelay() {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        OutboxMessage claimed = save("claimed");
+        assertThat(outboxMessageRepository.claim(List.of(claimed.getId()), "other-relay", now,
+                                                 new Timestamp(now.getTime() + 60_000))).isEqualTo(1);
+        save("unclaimed");
+
+        assertThat(receiveAfter(outboxRelay::wake, 1)).containsExactly("unclaimed");
+        assertThat(outboxMessageRepository.findById(claimed.getId()).get().getClaimedBy()).isEqualTo("other-relay");
+
+        // The other relay's claim runs out without it having sent the message.
+        assertThat(receiveAfter(() -> {
+            OutboxMessage expired = outboxMessageRepository.findById(claimed.getId()).get();
+            expired.setClaimedUntil(new Timestamp(now.getTime() - 1));
+            outboxMessageRepository.save(expired);
+            outboxRelay.wake();
+        }, 1)).containsExactly("claimed");
+    }
+
+    @Test
+    void testSendsBinaryPayloadsAsStored() {
+        ValidateOrderRequest request = new ValidateOrderRequest(BeerOrderDto.builder().id(UUID.randomUUID()).build());
+        outboxMessageRepository.save(OutboxMessage.builder()
+                                             .destination(QUEUE)
+                                             .payloadType(ValidateOrderRequest.class.getName())
+                                             .binaryPayload(BinaryEventCodec.encode(request))
+                                             .build());
+
+        assertThat(receiveAfter(outboxRelay::wake, 1)).containsExactly(request);
+    }
+
+    private OutboxMessage save(String text) {
+        return outboxMessageRepository.save(OutboxMessage.builder()
+                                                    .destination(QUEUE)
+                                                    .payloadType(String.class.getName())
+                                                    .payload("\"" + text + "\"")
+                                                    .build());
+    }
+
+    /**
+     * Receive through a single consumer, so messages it has already buffered aren't missed by the next receive. The
+     * consumer is opened before {@code trigger} runs: the broker auto-deletes the queue once its last consumer has
+     * gone, and a message sent while that happens is lost.
+     */
+    private List<Object> receiveAfter(Runnable trigger, int count) {
+        return jmsTemplate.execute(session -> {
+            List<Object> payloads = new ArrayList<>();
+            try (MessageConsumer consumer = session.createConsumer(session.createQueue(QUEUE))) {
+                trigger.run();
+                for (int i = 0; i < count; i++) {
+                    Message message = consumer.receive(5000);
+                    if (message == null) {
+                        break;
+                    }
+                    payloads.add(messageConverter.fromMessage(message));
+                }
+            }
+            return payloads;
+        }, true);
+    }
+}
@@ -4,12 +4,18 @@ import guru.sfg.beer.order.service.config.JmsConfig;
 import guru.sfg.brewery.model.BeerOrderDto;
 import guru.sfg.brewery.model.events.AllocateOrderRequest;
 import guru.sfg.brewery.model.events.AllocateOrderResponse;
+import guru.sfg.brewery.model.events.AllocateOrdersRequest;
+import guru.sfg.brewery.model.events.AllocateOrdersResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.jms.annotation.JmsListener;
 import org.springframework.jms.core.JmsTemplate;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
 import static guru.sfg.beer.order.service.services.TestConstants.*;
 
 @Slf4j
@@ -21,23 +27,38 @@ public class BeerOrderAllocationListener {
 
     @JmsListener(destination = JmsConfig.ALLOCATE_ORDER_QUEUE)
     public void listen(AllocateOrderRequest request) {
+        respond(request).ifPresent(
+                response -> jmsTemplate.convertAndSend(JmsConfig.ALLOCATE_ORDER_RESPONSE_QUEUE, response));
+    }
+
+    @JmsListener(destination = JmsConfig.ALLOCATE_ORDER_BATCH_QUEUE)
+    public void listen(AllocateOrdersRequest batch) {
+        List<AllocateOrderResponse> responses = batch.getRequests().stream()
+                .map(this::respond)
+                .flatMap(Optional::stream)
+                .collect(Collectors.toList());
+        if (!responses.isEmpty()) {
+            jmsTemplate.convertAndSend(JmsConfig.ALLOCATE_ORDER_RESPONSE_BATCH_QUEUE,
+                                       new AllocateOrdersResponse(responses));
+        }
+    }
+
+    private Optional<AllocateOrderResponse> respond(AllocateOrderRequest request) {
         BeerOrderDto beerOrderDto = request.getBeerOrderDto();
 
         // Simulate partial allocation.
         String customerRef = request.getBeerOrderDto().getCustomerRef();
-        boolean dontSend = CANCELLED_WHILE_PENDING_ALLOCATION.equals(customerRef);
-
-        if (!dontSend) {
-            boolean allocationError = FAIL_ALLOCATION.equals(customerRef);
-            boolean pendingInventory = PARTIAL_ALLOCATION.equals(customerRef);
-            int shortfall = pendingInventory ? 1 : 0;
-            beerOrderDto.getBeerOrderLines().forEach(line -> {
-                line.setQuantityAllocated(line.getOrderQuantity() - shortfall);
-            });
-            jmsTemplate.convertAndSend(JmsConfig.ALLOCATE_ORDER_RESPONSE_QUEUE,
-                                       new AllocateOrderResponse(beerOrderDto,
-                                                                 allocationError,
-                                                                 pendingInventory));
+        boolean dontSend = CANCELLED_WHILE_PENDING_ALLOCATION.equals(customerRef) || MANUAL_RESPONSES.equals(customerRef);
+
+        if (dontSend) {
+            return Optional.empty();
         }
+        boolean allocationError = FAIL_ALLOCATION.equals(customerRef);
+        boolean pendingInventory = PARTIAL_ALLOCATION.equals(customerRef);
+        int shortfall = pendingInventory ? 1 : 0;
+        beerOrderDto.getBeerOrderLines().forEach(line -> {
+            line.setQuantityAllocated(line.getOrderQuantity() - shortfall);
+        });
+        return Optional.of(new AllocateOrderResponse(beerOrderDto, allocationError, pendingInventory));
     }
 }
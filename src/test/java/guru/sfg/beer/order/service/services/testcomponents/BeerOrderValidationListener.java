@@ -3,14 +3,21 @@ package guru.sfg.beer.order.service.services.testcomponents;
 import guru.sfg.beer.order.service.config.JmsConfig;
 import guru.sfg.brewery.model.events.ValidateOrderRequest;
 import guru.sfg.brewery.model.events.ValidateOrderResponse;
+import guru.sfg.brewery.model.events.ValidateOrdersRequest;
+import guru.sfg.brewery.model.events.ValidateOrdersResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.jms.annotation.JmsListener;
 import org.springframework.jms.core.JmsTemplate;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
 import static guru.sfg.beer.order.service.services.TestConstants.CANCELLED_WHILE_PENDING_VALIDATION;
 import static guru.sfg.beer.order.service.services.TestConstants.FAIL_VALIDATION;
+import static guru.sfg.beer.order.service.services.TestConstants.MANUAL_RESPONSES;
 
 @Slf4j
 @RequiredArgsConstructor
@@ -21,14 +28,31 @@ public class BeerOrderValidationListener {
 
     @JmsListener(destination = JmsConfig.VALIDATE_ORDER_QUEUE)
     public void listen(ValidateOrderRequest request) {
+        respond(request).ifPresent(
+                response -> jmsTemplate.convertAndSend(JmsConfig.VALIDATE_ORDER_RESPONSE_QUEUE, response));
+    }
+
+    @JmsListener(destination = JmsConfig.VALIDATE_ORDER_BATCH_QUEUE)
+    public void listen(ValidateOrdersRequest batch) {
+        List<ValidateOrderResponse> responses = batch.getRequests().stream()
+                .map(this::respond)
+                .flatMap(Optional::stream)
+                .collect(Collectors.toList());
+        if (!responses.isEmpty()) {
+            jmsTemplate.convertAndSend(JmsConfig.VALIDATE_ORDER_RESPONSE_BATCH_QUEUE,
+                                       new ValidateOrdersResponse(responses));
+        }
+    }
+
+    private Optional<ValidateOrderResponse> respond(ValidateOrderRequest request) {
         // Condition to fail validation
         String custRef = request.getBeerOrderDto().getCustomerRef();
         boolean isInvalid = FAIL_VALIDATION.equals(custRef);
-        boolean dontSend = CANCELLED_WHILE_PENDING_VALIDATION.equals(custRef);
+        boolean dontSend = CANCELLED_WHILE_PENDING_VALIDATION.equals(custRef) || MANUAL_RESPONSES.equals(custRef);
 
-        if (!dontSend) {
-            jmsTemplate.convertAndSend(JmsConfig.VALIDATE_ORDER_RESPONSE_QUEUE,
-                                       new ValidateOrderResponse(request.getBeerOrderDto().getId(), !isInvalid));
+        if (dontSend) {
+            return Optional.empty();
         }
+        return Optional.of(new ValidateOrderResponse(request.getBeerOrderDto().getId(), !isInvalid));
     }
 }
@@ -0,0 +1,43 @@
+package guru.sfg.beer.order.service.services.testcomponents;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Collectors;
+
+/**
+ * Records every SQL statement Hibernate prepares, with the thread that prepared it. Enabled with
+ * {@code spring.jpa.properties.hibernate.session_factory.statement_inspector}; Hibernate instantiates it, so the
+ * record is static.
+ */
+public class SqlStatementCounter implements StatementInspector {
+
+    private static final Queue<String[]> STATEMENTS = new ConcurrentLinkedQueue<>();
+
+    @Override
+    public String inspect(String sql) {
+        STATEMENTS.add(new String[]{Thread.currentThread().getName(), sql});
+        return sql;
+    }
+
+    public static void reset() {
+        STATEMENTS.clear();
+    }
+
+    public static List<String> statements() {
+        return STATEMENTS.stream().map(statement -> statement[1]).collect(Collectors.toList());
+    }
+
+    /**
+     * Statements prepared on threads whose name starts with the prefix, leaving out background work such as the
+     * outbox relay.
+     */
+    public static List<String> statementsOn(String threadNamePrefix) {
+        return STATEMENTS.stream()
+                .filter(statement -> statement[0].startsWith(threadNamePrefix))
+                .map(statement -> statement[1])
+                .collect(Collectors.toList());
+    }
+}
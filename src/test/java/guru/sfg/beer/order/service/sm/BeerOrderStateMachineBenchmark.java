@@ -0,0 +1,128 @@
+package guru.sfg.beer.order.service.sm;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import guru.sfg.beer.order.service.domain.BeerOrderEventEnum;
+import guru.sfg.beer.order.service.domain.BeerOrderStatusEnum;
+import guru.sfg.beer.order.service.sm.actions.*;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.config.StateMachineFactory;
+import org.springframework.statemachine.support.DefaultStateMachineContext;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static guru.sfg.beer.order.service.services.BeerOrderManagerImpl.ORDER_ID_HEADER;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Per-event cost of building a state machine from the factory, borrowing one from
+ * {@link BeerOrderStateMachinePool}, and looking the transition up in {@link TableDrivenTransitionEngine}. Actions
+ * and the interceptor are stubbed so only the state machine overhead is measured. Run {@link #main(String[])} from the test classpath; the GC profiler reports the allocation rate
+ * (gc.alloc.rate.norm is bytes per event).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BeerOrderStateMachineBenchmark {
+
+    private AnnotationConfigApplicationContext                          context;
+    private StateMachineFactory<BeerOrderStatusEnum, BeerOrderEventEnum> stateMachineFactory;
+    private BeerOrderStateChangeInterceptor                             interceptor;
+    private BeerOrderStateMachinePool                                   pool;
+    private TableDrivenTransitionEngine                                 tableDrivenEngine;
+    private Message<BeerOrderEventEnum>                                 message;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        // Machine start/stop is logged at INFO, which would otherwise dominate the measurement.
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+
+        context = new AnnotationConfigApplicationContext();
+        context.registerBean(ValidateOrderAction.class, () -> mock(ValidateOrderAction.class));
+        context.registerBean(ValidationFailureAction.class, () -> mock(ValidationFailureAction.class));
+        context.registerBean(AllocateOrderAction.class, () -> mock(AllocateOrderAction.class));
+        context.registerBean(DeallocateOrderAction.class, () -> mock(DeallocateOrderAction.class));
+        context.registerBean(PendingInventoryAction.class, () -> mock(PendingInventoryAction.class));
+        context.registerBean(AllocationFailureAction.class, () -> mock(AllocationFailureAction.class));
+        context.register(BeerOrderStateMachineConfig.class);
+        context.refresh();
+
+        stateMachineFactory = context.getBean(StateMachineFactory.class);
+        interceptor = mock(BeerOrderStateChangeInterceptor.class, Mockito.CALLS_REAL_METHODS);
+        doNothing().when(interceptor).preStateChange(any(), any(), any(), any());
+        doAnswer(invocation -> ((BooleanSupplier) invocation.getArgument(1)).getAsBoolean())
+                .when(interceptor).persisting(any(), any());
+
+        pool = new BeerOrderStateMachinePool(stateMachineFactory, interceptor, new SimpleMeterRegistry());
+        pool.init();
+        tableDrivenEngine = new TableDrivenTransitionEngine(stateMachineFactory, interceptor);
+        tableDrivenEngine.init();
+
+        message = MessageBuilder.withPayload(BeerOrderEventEnum.VALIDATE_ORDER)
+                .setHeader(ORDER_ID_HEADER, UUID.randomUUID())
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    /**
+     * What BeerOrderManagerImpl did before pooling: a new machine per event.
+     */
+    @Benchmark
+    public boolean factoryPerEvent() {
+        StateMachine<BeerOrderStatusEnum, BeerOrderEventEnum> sm = stateMachineFactory.getStateMachine(UUID.randomUUID());
+        sm.stop();
+        sm.getStateMachineAccessor()
+                .doWithAllRegions(sma -> {
+                    sma.resetStateMachine(new DefaultStateMachineContext<>(BeerOrderStatusEnum.NEW, null, null, null));
+                    sma.addStateMachineInterceptor(interceptor);
+                });
+        sm.start();
+        return sm.sendEvent(message);
+    }
+
+    @Benchmark
+    public boolean pooled() {
+        StateMachine<BeerOrderStatusEnum, BeerOrderEventEnum> sm = pool.borrow(BeerOrderStatusEnum.NEW);
+        try {
+            return sm.sendEvent(message);
+        } finally {
+            pool.release(sm);
+        }
+    }
+
+    @Benchmark
+    public boolean tableDriven() {
+        return tableDrivenEngine.sendEvent(BeerOrderStatusEnum.NEW, message);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                           .include(BeerOrderStateMachineBenchmark.class.getSimpleName())
+                           .addProfiler(GCProfiler.class)
+                           .build()).run();
+    }
+}
@@ -0,0 +1,133 @@
+package guru.sfg.beer.order.service.web.controllers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import guru.sfg.beer.order.service.domain.BeerOrder;
+import guru.sfg.beer.order.service.domain.BeerOrderStatusEnum;
+import guru.sfg.beer.order.service.domain.Customer;
+import guru.sfg.beer.order.service.repositories.BeerOrderRepository;
+import guru.sfg.beer.order.service.repositories.CustomerRepository;
+import guru.sfg.beer.order.service.services.BeerOrderService;
+import guru.sfg.brewery.model.BeerOrderDto;
+import guru.sfg.brewery.model.BeerOrderPagedList;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@TestPropertySource(properties = "app.scheduling.enable=false")
+class BeerOrderControllerIT {
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Autowired
+    CustomerRepository customerRepository;
+
+    @Autowired
+    BeerOrderRepository beerOrderRepository;
+
+    @Autowired
+    BeerOrderService beerOrderService;
+
+    @Test
+    void testExportWritesOneOrderPerLine() throws Exception {
+        Customer customer = customerRepository.save(Customer.builder().customerName("Export Customer").build());
+        Set<UUID> orderIds = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            orderIds.add(beerOrderRepository.save(BeerOrder.builder()
+                                                          .customer(customer)
+                                                          .customerRef("export-" + i)
+                                                          .orderStatus(BeerOrderStatusEnum.NEW)
+                                                          .build()).getId());
+        }
+
+        String body = mockMvc.perform(get("/api/v1/customers/{customerId}/orders/export", customer.getId()))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(BeerOrderController.NDJSON))
+                .andReturn().getResponse().getContentAsString();
+
+        assertThat(body).endsWith("\n");
+        String[] lines = body.split("\n");
+        assertThat(lines).hasSize(3);
+        List<UUID> exported = new ArrayList<>();
+        for (String line : lines) {
+            BeerOrderDto beerOrder = objectMapper.readValue(line, BeerOrderDto.class);
+            assertThat(beerOrder.getCustomerId()).isEqualTo(customer.getId());
+            exported.add(beerOrder.getId());
+        }
+        assertThat(exported).containsExactlyInAnyOrderElementsOf(orderIds);
+    }
+
+    @Test
+    void testListingsAreWrittenInThePagedListShape() throws Exception {
+        Customer customer = customerRepository.save(Customer.builder().customerName("Listing Customer").build());
+        for (int i = 0; i < 3; i++) {
+            beerOrderRepository.save(BeerOrder.builder()
+                                             .customer(customer)
+                                             .customerRef("listing-" + i)
+                                             .orderStatus(BeerOrderStatusEnum.NEW)
+                                             .build());
+        }
+
+        for (int pageNumber = 0; pageNumber < 3; pageNumber++) {
+            String body = mockMvc.perform(get("/api/v1/customers/{customerId}/orders", customer.getId())
+                                                  .param("pageNumber", String.valueOf(pageNumber))
+                                                  .param("pageSize", "2"))
+                    .andExpect(status().isOk())
+                    .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                    .andReturn().getResponse().getContentAsString();
+
+            BeerOrderPagedList expected = beerOrderService.listOrders(customer.getId(),
+                                                                      PageRequest.of(pageNumber, 2));
+            JsonNode page = objectMapper.readTree(body);
+            assertThat(page).isEqualTo(objectMapper.readTree(objectMapper.writeValueAsString(expected)));
+            assertThat(page.get("totalElements").asLong()).isEqualTo(3);
+        }
+
+        String body = mockMvc.perform(get("/api/v1/customers").param("pageSize", "2"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        assertThat(objectMapper.readTree(body)).isEqualTo(objectMapper.readTree(
+                objectMapper.writeValueAsString(beerOrderService.listCustomers(PageRequest.of(0, 2)))));
+    }
+
+    @Test
+    void testOversizedPageSizeIsCapped() throws Exception {
+        Customer customer = customerRepository.save(Customer.builder().customerName("Greedy Customer").build());
+
+        mockMvc.perform(get("/api/v1/customers/{customerId}/orders", customer.getId()).param("pageSize", "100000"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.size").value(250));
+        mockMvc.perform(get("/api/v1/customers").param("pageSize", "100000"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.size").value(250));
+    }
+
+    @Test
+    void testExportForUnknownCustomerIsNotFound() throws Exception {
+        mockMvc.perform(get("/api/v1/customers/{customerId}/orders/export", UUID.randomUUID()))
+                .andExpect(status().isNotFound());
+    }
+}
@@ -0,0 +1,137 @@
+package guru.sfg.beer.order.service.web.controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.jenspiegsa.wiremockextension.WireMockExtension;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import guru.sfg.beer.order.service.domain.BeerOrder;
+import guru.sfg.beer.order.service.domain.BeerOrderLine;
+import guru.sfg.beer.order.service.domain.BeerOrderStatusEnum;
+import guru.sfg.beer.order.service.domain.Customer;
+import guru.sfg.beer.order.service.repositories.BeerOrderRepository;
+import guru.sfg.beer.order.service.repositories.CustomerRepository;
+import guru.sfg.beer.order.service.services.beer.BeerServiceImpl;
+import guru.sfg.brewery.model.BeerOrderDto;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+
+import static com.github.jenspiegsa.wiremockextension.ManagedWireMockServer.with;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.okJson;
+import static com.github.tomakehurst.wiremock.client.WireMock.serverError;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@ExtendWith(WireMockExtension.class)
+@SpringBootTest
+@AutoConfigureMockMvc
+@TestPropertySource(properties = {
+        "app.scheduling.enable=false",
+        "sfg.brewery.beer-service-host=http://localhost:8088",
+        "sfg.brewery.order-enrichment.deadline=500ms"
+})
+class BeerOrderEnrichmentDeadlineIT {
+
+    private static final long DEADLINE_MILLIS = 500;
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Autowired
+    CustomerRepository customerRepository;
+
+    @Autowired
+    BeerOrderRepository beerOrderRepository;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    WireMockServer wireMockServer;
+
+    @TestConfiguration
+    static class RestTemplateBuilderProvider {
+        @Bean(destroyMethod = "stop")
+        public WireMockServer wireMockServer() {
+            WireMockServer server = with(wireMockConfig().port(8088));
+            server.start();
+            return server;
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        wireMockServer.resetAll();
+    }
+
+    @Test
+    void testSlowBeerServiceIsCutOffAtTheDeadline() throws Exception {
+        assertEnrichmentIncomplete(okJson("[]").withFixedDelay(2500));
+    }
+
+    @Test
+    void testFailedLookupLeavesLinesWithoutDetails() throws Exception {
+        assertEnrichmentIncomplete(serverError());
+    }
+
+    private void assertEnrichmentIncomplete(ResponseDefinitionBuilder beerServiceResponse) throws Exception {
+        wireMockServer.stubFor(get(urlPathEqualTo(BeerServiceImpl.BEER_UPCS_PATH_V1))
+                                       .willReturn(beerServiceResponse));
+        BeerOrder beerOrder = saveOrderWithoutBeerDetails();
+        double incomplete = meterRegistry.counter("sfg.brewery.order.enrichment.incomplete").count();
+
+        long start = System.nanoTime();
+        String body = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/customers/{customerId}/orders/{orderId}",
+                                                                 beerOrder.getCustomer().getId(), beerOrder.getId()))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // The deadline plus the time to read and write the order, well short of the stubbed delay.
+        assertThat(elapsedMillis).isLessThan(DEADLINE_MILLIS + 1000);
+        BeerOrderDto read = objectMapper.readValue(body, BeerOrderDto.class);
+        assertThat(read.getBeerOrderLines()).hasSize(1);
+        assertThat(read.getBeerOrderLines()).allSatisfy(line -> {
+            assertThat(line.getBeerId()).isNull();
+            assertThat(line.getBeerName()).isNull();
+        });
+        assertThat(meterRegistry.counter("sfg.brewery.order.enrichment.incomplete").count())
+                .isEqualTo(incomplete + 1);
+    }
+
+    /**
+     * A fresh UPC each time, so nothing is served from the beer cache.
+     */
+    private BeerOrder saveOrderWithoutBeerDetails() {
+        Customer customer = customerRepository.save(Customer.builder().customerName("Deadline Customer").build());
+        BeerOrder beerOrder = BeerOrder.builder()
+                .customer(customer)
+                .orderStatus(BeerOrderStatusEnum.NEW)
+                .build();
+        beerOrder.setBeerOrderLines(new HashSet<>(List.of(BeerOrderLine.builder()
+                                                                  .upc(UUID.randomUUID().toString())
+                                                                  .orderQuantity(1)
+                                                                  .beerOrder(beerOrder)
+                                                                  .build())));
+        return beerOrderRepository.save(beerOrder);
+    }
+}